@@ -3,9 +3,11 @@ package com.bookstore.controller;
 import com.bookstore.common.ApiResponse;
 import com.bookstore.dto.BookDTO;
 import com.bookstore.entity.Book;
+import com.bookstore.service.BestsellerTracker;
 import com.bookstore.service.BookService;
 import com.bookstore.util.BookDtoMapper;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +36,9 @@ public class BookController {
     
     @Autowired
     private BookDtoMapper bookDtoMapper;
+
+    @Autowired
+    private BestsellerTracker bestsellerTracker;
     
     @Value("${app.cors.allowed-origins:http://localhost:5173}")
     private String allowedOrigins;
@@ -57,12 +62,30 @@ public class BookController {
     @GetMapping("/paged")
     public ApiResponse<Map<String, Object>> getBooksPaged(
             @RequestParam(defaultValue = "1") @Min(1) int page,
-            @RequestParam(defaultValue = "20") @Min(1) int size) {
-        logger.info("分页获取图书, page={}, size={}", page, size);
-        Map<String, Object> response = bookService.getBooksPaged(page, size);
+            @RequestParam(defaultValue = "20") @Min(1) @Max(100) int size,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean withTotal) {
+        logger.info("分页获取图书, page={}, size={}, cursor={}", page, size, cursor);
+        // 传入cursor参数（第一页传空字符串）时使用游标分页
+        Map<String, Object> response = cursor != null
+                ? bookService.getBooksByCursor(cursor, size, withTotal)
+                : bookService.getBooksPaged(page, size);
         return ApiResponse.success(response);
     }
 
+    /**
+     * 实时畅销榜
+     * @param window 时间窗口：hour, day, week
+     * @param category 图书分类，不传时为全站榜单
+     */
+    @GetMapping("/bestsellers")
+    public ApiResponse<List<Map<String, Object>>> getBestsellers(
+            @RequestParam(defaultValue = "day") String window,
+            @RequestParam(required = false) String category,
+            @RequestParam(defaultValue = "10") @Min(1) int limit) {
+        return ApiResponse.success(bestsellerTracker.getBestsellers(window, category, limit));
+    }
+
     /**
      * 根据ID获取图书
      */
@@ -78,11 +101,12 @@ public class BookController {
      */
     @GetMapping("/search")
     public ApiResponse<List<BookDTO>> searchBooks(
+            @RequestParam(required = false) String q,
             @RequestParam(required = false) String title,
             @RequestParam(required = false) String author) {
-        logger.info("搜索图书, title={}, author={}", title, author);
+        logger.info("搜索图书, q={}, title={}, author={}", q, title, author);
         
-        List<Book> result = bookService.searchBooksByTitleAndAuthor(title, author);
+        List<Book> result = bookService.searchBooks(q, title, author);
         
         List<BookDTO> bookDTOs = result.stream()
                 .map(bookDtoMapper::toDto)
@@ -90,6 +114,21 @@ public class BookController {
         return ApiResponse.success(bookDTOs);
     }
 
+    /**
+     * 分页搜索图书
+     */
+    @GetMapping("/search/paged")
+    public ApiResponse<Map<String, Object>> searchBooksPaged(
+            @RequestParam(required = false) String q,
+            @RequestParam(required = false) String title,
+            @RequestParam(required = false) String author,
+            @RequestParam(defaultValue = "1") @Min(1) int page,
+            @RequestParam(defaultValue = "20") @Min(1) @Max(100) int size) {
+        logger.info("分页搜索图书, q={}, title={}, author={}, page={}, size={}", q, title, author, page, size);
+        Map<String, Object> response = bookService.searchBooksPaged(q, title, author, page, size);
+        return ApiResponse.success(response);
+    }
+
     /**
      * 获取所有分类
      */
@@ -120,9 +159,13 @@ public class BookController {
     public ApiResponse<Map<String, Object>> getBooksByCategoryPaged(
             @PathVariable String category,
             @RequestParam(defaultValue = "1") @Min(1) int page,
-            @RequestParam(defaultValue = "20") @Min(1) int size) {
-        logger.info("分页获取分类下的图书, category={}, page={}, size={}", category, page, size);
-        Map<String, Object> response = bookService.getBooksByCategoryPaged(category, page, size);
+            @RequestParam(defaultValue = "20") @Min(1) @Max(100) int size,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean withTotal) {
+        logger.info("分页获取分类下的图书, category={}, page={}, size={}, cursor={}", category, page, size, cursor);
+        Map<String, Object> response = cursor != null
+                ? bookService.getBooksByCategoryByCursor(category, cursor, size, withTotal)
+                : bookService.getBooksByCategoryPaged(category, page, size);
         return ApiResponse.success(response);
     }
 
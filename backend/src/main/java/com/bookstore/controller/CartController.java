@@ -1,5 +1,6 @@
 package com.bookstore.controller;
 
+import com.bookstore.dto.OrderDTO;
 import com.bookstore.entity.CartItem;
 import com.bookstore.service.CartService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -97,4 +98,24 @@ public class CartController {
         response.put("success", success);
         return ResponseEntity.ok(response);
     }
+
+    /**
+     * 结算购物车，整个购物车生成一个订单并清空购物车
+     * 请求体中的 items（bookId, quantity）为页面显示的购物车内容，与服务端购物车不一致时拒绝结算
+     */
+    @PostMapping("/user/{userId}/checkout")
+    public ResponseEntity<OrderDTO> checkout(@PathVariable Long userId,
+                                             @RequestBody(required = false) Map<String, Object> payload) {
+        Map<Long, Integer> expectedItems = null;
+        if (payload != null && payload.get("items") instanceof List<?> items) {
+            expectedItems = new HashMap<>();
+            for (Object item : items) {
+                Map<?, ?> entry = (Map<?, ?>) item;
+                expectedItems.merge(Long.parseLong(entry.get("bookId").toString()),
+                        Integer.parseInt(entry.get("quantity").toString()), Integer::sum);
+            }
+        }
+        OrderDTO orderDTO = new OrderDTO(cartService.checkout(userId, expectedItems));
+        return ResponseEntity.ok(orderDTO);
+    }
 }
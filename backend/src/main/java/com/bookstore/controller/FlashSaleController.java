@@ -0,0 +1,53 @@
+package com.bookstore.controller;
+
+import com.bookstore.service.FlashSaleService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/flash-sales")
+@CrossOrigin(origins = "http://localhost:5173")
+public class FlashSaleController {
+
+    @Autowired
+    private FlashSaleService flashSaleService;
+
+    /**
+     * 获取所有秒杀图书及其当前库存
+     */
+    @GetMapping
+    public ResponseEntity<List<Map<String, Object>>> getFlashSaleBooks() {
+        return ResponseEntity.ok(flashSaleService.getFlashSaleBooks());
+    }
+
+    /**
+     * 开启图书秒杀
+     * @param bookId 图书ID
+     */
+    @PostMapping("/{bookId}")
+    public ResponseEntity<Map<String, Object>> enable(@PathVariable Long bookId) {
+        Map<String, Object> flashSaleBook = flashSaleService.enable(bookId);
+        return ResponseEntity.ok(Map.of(
+            "success", true,
+            "data", flashSaleBook,
+            "message", "已开启秒杀"
+        ));
+    }
+
+    /**
+     * 关闭图书秒杀
+     * @param bookId 图书ID
+     */
+    @DeleteMapping("/{bookId}")
+    public ResponseEntity<Map<String, Object>> disable(@PathVariable Long bookId) {
+        flashSaleService.disable(bookId);
+        return ResponseEntity.ok(Map.of(
+            "success", true,
+            "message", "已关闭秒杀"
+        ));
+    }
+}
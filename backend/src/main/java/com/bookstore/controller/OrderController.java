@@ -2,9 +2,13 @@ package com.bookstore.controller;
 
 import com.bookstore.dto.OrderDTO;
 import com.bookstore.entity.Order;
+import com.bookstore.service.IdempotencyService;
 import com.bookstore.service.OrderService;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
 
@@ -13,6 +17,7 @@ import java.util.Map;
 
 
 @RestController
+@Validated
 @RequestMapping("/api/orders")
 @CrossOrigin(origins = "http://localhost:5173")
 public class OrderController {
@@ -20,6 +25,9 @@ public class OrderController {
     @Autowired
     private OrderService orderService;
 
+    @Autowired
+    private IdempotencyService idempotencyService;
+
     @GetMapping
     public List<Order> getAllOrders() {
         return orderService.getAllOrders();
@@ -27,9 +35,14 @@ public class OrderController {
 
     @GetMapping("/paged")
     public ResponseEntity<Map<String, Object>> getOrdersPaged(
-            @RequestParam(defaultValue = "1") int page,
-            @RequestParam(defaultValue = "10") int size) {
-        Map<String, Object> response = orderService.getOrdersPaged(page, size);
+            @RequestParam(defaultValue = "1") @Min(1) int page,
+            @RequestParam(defaultValue = "10") @Min(1) @Max(100) int size,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean withTotal) {
+        // 传入cursor参数（第一页传空字符串）时使用游标分页
+        Map<String, Object> response = cursor != null
+                ? orderService.getOrdersByCursor(cursor, size, withTotal)
+                : orderService.getOrdersPaged(page, size);
         return ResponseEntity.ok(response);
     }
 
@@ -50,27 +63,38 @@ public class OrderController {
     @GetMapping("/user/{userId}/paged")
     public ResponseEntity<Map<String, Object>> getOrdersByUserPaged(
             @PathVariable Long userId,
-            @RequestParam(defaultValue = "1") int page,
-            @RequestParam(defaultValue = "9") int size) {
+            @RequestParam(defaultValue = "1") @Min(1) int page,
+            @RequestParam(defaultValue = "9") @Min(1) @Max(100) int size,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean withTotal) {
         // 调用service层方法，由service负责数据转换
-        Map<String, Object> response = orderService.getUserOrdersPagedWithDTO(userId, page, size);
+        Map<String, Object> response = cursor != null
+                ? orderService.getUserOrdersByCursorWithDTO(userId, cursor, size, withTotal)
+                : orderService.getUserOrdersPagedWithDTO(userId, page, size);
         return ResponseEntity.ok(response);
     }
 
     @PostMapping
-    public ResponseEntity<OrderDTO> createOrder(@RequestBody Map<String, Object> payload) {
-        // 直接将整个payload传递给service层处理
-        Order savedOrder = orderService.createOrderFromPayload(payload);
-        OrderDTO orderDTO = new OrderDTO(savedOrder);
-        return ResponseEntity.ok(orderDTO);
+    public ResponseEntity<?> createOrder(
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
+            @RequestBody Map<String, Object> payload) {
+        // 携带 Idempotency-Key 请求头时，重复提交返回第一次创建的订单，不会重复下单
+        return idempotencyService.execute(idempotencyKey, "orders:" + payload.get("userId"), payload, () -> {
+            // 直接将整个payload传递给service层处理
+            Order savedOrder = orderService.createOrderFromPayload(payload);
+            return ResponseEntity.ok(new OrderDTO(savedOrder));
+        });
     }
 
     @PostMapping("/book")
-    public ResponseEntity<OrderDTO> createOrderFromBook(@RequestBody Map<String, Object> payload) {
-        // 直接将整个payload传递给service层处理
-        Order savedOrder = orderService.createOrderFromBookWithPayload(payload);
-        OrderDTO orderDTO = new OrderDTO(savedOrder);
-        return ResponseEntity.ok(orderDTO);
+    public ResponseEntity<?> createOrderFromBook(
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
+            @RequestBody Map<String, Object> payload) {
+        return idempotencyService.execute(idempotencyKey, "orders.book:" + payload.get("userId"), payload, () -> {
+            // 直接将整个payload传递给service层处理
+            Order savedOrder = orderService.createOrderFromBookWithPayload(payload);
+            return ResponseEntity.ok(new OrderDTO(savedOrder));
+        });
     }
 
     @PutMapping("/{id}/status")
@@ -120,10 +144,11 @@ public class OrderController {
     
     @PostMapping("/check-overdue")
     public ResponseEntity<Map<String, Object>> checkOverdueOrders() {
-        // 调用service层的检查并取消过期订单方法
-        orderService.cancelAllOverdueOrders();
+        // 超时订单由服务端定时取消，这里只处理已到期的订单
+        int cancelledCount = orderService.cancelAllOverdueOrders();
         return ResponseEntity.ok().body(Map.of(
             "success", true,
+            "cancelledCount", cancelledCount,
             "message", "成功检查并取消过期订单"
         ));
     }
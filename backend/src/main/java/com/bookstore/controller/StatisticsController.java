@@ -1,9 +1,17 @@
 package com.bookstore.controller;
 
+import com.bookstore.service.SalesRollupService;
+import com.bookstore.service.SalesTimeSeries;
 import com.bookstore.service.StatisticsService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.time.LocalDateTime;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/statistics")
@@ -13,6 +21,26 @@ public class StatisticsController {
     @Autowired
     private StatisticsService statisticsService;
 
+    @Autowired
+    private SalesRollupService salesRollupService;
+
+    @Autowired
+    private SalesTimeSeries salesTimeSeries;
+
+    /**
+     * 获取统计页的全部数据，一次请求返回摘要卡片和所有图表的数据
+     * @param period 销售趋势的时间周期：day, week, month, year
+     * @param limit 畅销排行的数量
+     */
+    @GetMapping("/overview")
+    public ResponseEntity<?> getOverview(@RequestParam(defaultValue = "day") String period,
+                                         @RequestParam(defaultValue = "10") int limit) {
+        if (!period.equals("day") && !period.equals("week") && !period.equals("month") && !period.equals("year")) {
+            return ResponseEntity.badRequest().body("无效的时间周期");
+        }
+        return ResponseEntity.ok(statisticsService.getOverview(period, limit));
+    }
+
     /**
      * 获取销售统计数据
      * @param period 时间周期：day, week, month, year
@@ -26,23 +54,48 @@ public class StatisticsController {
         return ResponseEntity.ok(statisticsService.getSalesStatistics(period));
     }
 
+    /**
+     * 获取实时销售数据：最近60分钟和最近24小时的销售额和订单数
+     */
+    @GetMapping("/sales/live")
+    public ResponseEntity<?> getLiveSales() {
+        return ResponseEntity.ok(salesTimeSeries.snapshot());
+    }
+
+    /**
+     * 订阅实时销售数据（Server-Sent Events）：连接时发送 snapshot 事件，之后定期发送变化时间段的 update 事件
+     */
+    @GetMapping(value = "/sales/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamSales() {
+        return salesTimeSeries.subscribe();
+    }
+
     /**
      * 获取畅销书籍排行
      * @param limit 返回的数量限制
+     * @param from 下单时间下限（包含），ISO格式，不传时不限
+     * @param to 下单时间上限（不包含），ISO格式，不传时不限
      * @return 畅销书籍排行数据
      */
     @GetMapping("/top-books")
-    public ResponseEntity<?> getTopBooks(@RequestParam(defaultValue = "10") int limit) {
-        return ResponseEntity.ok(statisticsService.getTopBooks(limit));
+    public ResponseEntity<?> getTopBooks(
+            @RequestParam(defaultValue = "10") int limit,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        return ResponseEntity.ok(statisticsService.getTopBooks(limit, from, to));
     }
 
     /**
      * 获取分类销售比例（按书籍数量）
+     * @param from 下单时间下限（包含），ISO格式，不传时不限
+     * @param to 下单时间上限（不包含），ISO格式，不传时不限
      * @return 分类销售比例数据（按书籍数量）
      */
     @GetMapping("/category-sales")
-    public ResponseEntity<?> getCategorySales() {
-        return ResponseEntity.ok(statisticsService.getCategorySales());
+    public ResponseEntity<?> getCategorySales(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        return ResponseEntity.ok(statisticsService.getCategorySales(from, to));
     }
 
     /**
@@ -62,4 +115,12 @@ public class StatisticsController {
     public ResponseEntity<?> getDashboardStatistics() {
         return ResponseEntity.ok(statisticsService.getDashboardStatistics());
     }
+
+    /**
+     * 根据全部订单重新生成销售汇总
+     */
+    @PostMapping("/rollups/rebuild")
+    public ResponseEntity<?> rebuildRollups() {
+        return ResponseEntity.ok(Map.of("success", true, "processed", salesRollupService.rebuild()));
+    }
 }
@@ -2,8 +2,13 @@ package com.bookstore.controller;
 
 import com.bookstore.service.TransactionService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.nio.charset.StandardCharsets;
 
 @RestController
 @RequestMapping("/api/transactions")
@@ -19,8 +24,11 @@ public class TransactionController {
      * @param type 交易类型（可选）
      * @param startDate 开始日期（可选）
      * @param endDate 结束日期（可选）
+     * @param sort 按创建时间排序的方向，asc 或 desc
      * @param page 页码
      * @param size 每页大小
+     * @param cursor 游标，传入时（第一页传空字符串）使用游标分页
+     * @param withTotal 游标分页时是否同时返回总数
      * @return 交易记录列表
      */
     @GetMapping("/user/{userId}")
@@ -29,16 +37,53 @@ public class TransactionController {
             @RequestParam(required = false) String type,
             @RequestParam(required = false) String startDate,
             @RequestParam(required = false) String endDate,
+            @RequestParam(defaultValue = "desc") String sort,
             @RequestParam(defaultValue = "1") int page,
-            @RequestParam(defaultValue = "10") int size) {
+            @RequestParam(defaultValue = "10") int size,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean withTotal) {
 
         try {
             // 直接调用Service层方法获取交易记录
-            Object result = transactionService.getUserTransactions(userId, type, startDate, endDate, page, size);
+            Object result = transactionService.getUserTransactions(
+                    userId, type, startDate, endDate, sort, page, size, cursor, withTotal);
             return ResponseEntity.ok(result);
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.badRequest().body("获取交易记录失败: " + e.getMessage());
         }
     }
+
+    /**
+     * 导出用户的全部交易记录（按创建时间升序），边查询边写出
+     * @param userId 用户ID
+     * @param type 交易类型（可选）
+     * @param startDate 开始日期（可选）
+     * @param endDate 结束日期（可选）
+     * @param format 导出格式，csv（默认）或 ndjson
+     * @return 交易记录文件
+     */
+    @GetMapping("/user/{userId}/export")
+    public ResponseEntity<?> exportUserTransactions(
+            @PathVariable Long userId,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) String startDate,
+            @RequestParam(required = false) String endDate,
+            @RequestParam(defaultValue = "csv") String format) {
+
+        try {
+            StreamingResponseBody body = transactionService.exportUserTransactions(
+                    userId, type, startDate, endDate, format);
+            boolean csv = TransactionService.isCsv(format);
+            return ResponseEntity.ok()
+                    .contentType(csv ? new MediaType("text", "csv", StandardCharsets.UTF_8)
+                            : MediaType.APPLICATION_NDJSON)
+                    .header(HttpHeaders.CONTENT_DISPOSITION,
+                            "attachment; filename=\"transactions-" + userId + (csv ? ".csv" : ".ndjson") + "\"")
+                    .body(body);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.badRequest().body("导出交易记录失败: " + e.getMessage());
+        }
+    }
 }
@@ -2,9 +2,12 @@ package com.bookstore.controller;
 
 import com.bookstore.entity.User;
 import com.bookstore.service.UserService;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
@@ -12,6 +15,7 @@ import java.util.List;
 import java.util.Map;
 
 @RestController
+@Validated
 @RequestMapping("/api/users")
 public class UserController {
 
@@ -25,8 +29,14 @@ public class UserController {
 
     @GetMapping("/paged")
     public ResponseEntity<Map<String, Object>> getUsersPaged(
-            @RequestParam(defaultValue = "1") int page,
-            @RequestParam(defaultValue = "10") int size) {
+            @RequestParam(defaultValue = "1") @Min(1) int page,
+            @RequestParam(defaultValue = "10") @Min(1) @Max(100) int size,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "false") boolean withTotal) {
+        // 传入cursor参数（第一页传空字符串）时使用游标分页
+        if (cursor != null) {
+            return ResponseEntity.ok(userService.getUsersByCursor(cursor, size, withTotal));
+        }
         return ResponseEntity.ok(userService.getUsersPaged(page, size));
     }
 
@@ -1,9 +1,16 @@
 package com.bookstore.controller;
 
+import com.bookstore.service.IdempotencyService;
+import com.bookstore.service.WalletCheckpointService;
+import com.bookstore.service.WalletCommandDispatcher;
+import com.bookstore.service.WalletReconciliationService;
 import com.bookstore.service.WalletService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
 import java.util.Map;
 
 @RestController
@@ -14,6 +21,18 @@ public class WalletController {
     @Autowired
     private WalletService walletService;
 
+    @Autowired
+    private WalletCommandDispatcher walletCommandDispatcher;
+
+    @Autowired
+    private WalletCheckpointService walletCheckpointService;
+
+    @Autowired
+    private WalletReconciliationService walletReconciliationService;
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
     /**
      * 获取用户余额
      */
@@ -22,13 +41,60 @@ public class WalletController {
         return ResponseEntity.ok(walletService.getUserBalance(userId));
     }
 
+    /**
+     * 查询用户在指定时间的余额
+     * @param time ISO格式的时间，如 2024-01-01T00:00:00，不传时为当前时间
+     */
+    @GetMapping("/{userId}/balance-at")
+    public ResponseEntity<?> getBalanceAt(
+            @PathVariable Long userId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime time) {
+        return ResponseEntity.ok(walletCheckpointService.getBalanceAt(userId, time));
+    }
+
+    /**
+     * 核对用户钱包余额与交易记录
+     */
+    @GetMapping("/{userId}/reconcile")
+    public ResponseEntity<?> reconcile(@PathVariable Long userId) {
+        return ResponseEntity.ok(walletCheckpointService.reconcile(userId));
+    }
+
+    /**
+     * 立即为有新交易的钱包生成余额快照
+     */
+    @PostMapping("/checkpoints")
+    public ResponseEntity<?> createCheckpoints() {
+        return ResponseEntity.ok(Map.of("success", true, "created", walletCheckpointService.createCheckpoints()));
+    }
+
+    /**
+     * 在后台对全部用户进行对账
+     * @param repairPlan 是否生成修复计划
+     */
+    @PostMapping("/reconciliation")
+    public ResponseEntity<?> startReconciliation(@RequestParam(defaultValue = "false") boolean repairPlan) {
+        return ResponseEntity.ok(walletReconciliationService.startReconciliation(repairPlan));
+    }
+
+    /**
+     * 获取最近一次全量对账的报告
+     */
+    @GetMapping("/reconciliation")
+    public ResponseEntity<?> getReconciliationReport() {
+        return ResponseEntity.ok(walletReconciliationService.getLastReport());
+    }
+
+    // 资金操作按用户分配到钱包命令通道中串行执行
+
     /**
      * 充值
      */
     @PostMapping("/deposit")
     public ResponseEntity<?> deposit(@RequestBody Map<String, Object> payload) {
         Long userId = ((Number) payload.get("userId")).longValue();
-        return ResponseEntity.ok(walletService.depositWithResponse(userId, payload));
+        return ResponseEntity.ok(walletCommandDispatcher.execute(userId,
+                () -> walletService.depositWithResponse(userId, payload)));
     }
 
     /**
@@ -37,16 +103,22 @@ public class WalletController {
     @PostMapping("/withdraw")
     public ResponseEntity<?> withdraw(@RequestBody Map<String, Object> payload) {
         Long userId = ((Number) payload.get("userId")).longValue();
-        return ResponseEntity.ok(walletService.withdrawWithResponse(userId, payload));
+        return ResponseEntity.ok(walletCommandDispatcher.execute(userId,
+                () -> walletService.withdrawWithResponse(userId, payload)));
     }
 
     /**
      * 支付订单
+     * 携带 Idempotency-Key 请求头时，重复提交直接返回第一次的结果
      */
     @PostMapping("/pay")
-    public ResponseEntity<?> payOrder(@RequestBody Map<String, Object> payload) {
+    public ResponseEntity<?> payOrder(
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
+            @RequestBody Map<String, Object> payload) {
         Long userId = ((Number) payload.get("userId")).longValue();
-        return ResponseEntity.ok(walletService.payOrderWithResponse(userId, payload));
+        return idempotencyService.execute(idempotencyKey, "wallet.pay:" + userId, payload,
+                () -> ResponseEntity.ok(walletCommandDispatcher.execute(userId,
+                        () -> walletService.payOrderWithResponse(userId, payload))));
     }
 
     /**
@@ -55,15 +127,21 @@ public class WalletController {
     @PostMapping("/refund")
     public ResponseEntity<?> refund(@RequestBody Map<String, Object> payload) {
         Long userId = ((Number) payload.get("userId")).longValue();
-        return ResponseEntity.ok(walletService.refundWithResponse(userId, payload));
+        return ResponseEntity.ok(walletCommandDispatcher.execute(userId,
+                () -> walletService.refundWithResponse(userId, payload)));
     }
 
     /**
      * 批量支付订单
+     * 携带 Idempotency-Key 请求头时，重复提交直接返回第一次的结果
      */
     @PostMapping("/batch-pay")
-    public ResponseEntity<?> batchPayOrders(@RequestBody Map<String, Object> payload) {
+    public ResponseEntity<?> batchPayOrders(
+            @RequestHeader(value = IdempotencyService.HEADER, required = false) String idempotencyKey,
+            @RequestBody Map<String, Object> payload) {
         Long userId = ((Number) payload.get("userId")).longValue();
-        return ResponseEntity.ok(walletService.batchPayOrdersWithResponse(userId, payload));
+        return idempotencyService.execute(idempotencyKey, "wallet.batch-pay:" + userId, payload,
+                () -> ResponseEntity.ok(walletCommandDispatcher.execute(userId,
+                        () -> walletService.batchPayOrdersWithResponse(userId, payload))));
     }
 }
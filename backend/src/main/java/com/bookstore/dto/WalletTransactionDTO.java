@@ -1,14 +1,20 @@
 package com.bookstore.dto;
 
 import com.bookstore.entity.WalletTransaction;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
 import java.math.BigDecimal;
 import java.util.Date;
 
+/**
+ * 交易记录的扁平投影，列表查询直接映射到该类，不构建钱包、用户和订单对象
+ * 列表查询不包含用户信息，为空的字段不输出
+ */
 @Data
 @NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class WalletTransactionDTO {
     private Long id;
     private Long walletId;
@@ -0,0 +1,31 @@
+package com.bookstore.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.Date;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FlashSaleBook {
+
+    private Long bookId;
+
+    /**
+     * 开启秒杀时的库存
+     */
+    private Integer initialStock;
+
+    /**
+     * 开启秒杀时订单项的最大ID，之后的订单项都从秒杀库存中扣减
+     */
+    private Long startItemId;
+
+    /**
+     * 开启秒杀以来售出的数量（只在查询时计算）
+     */
+    private Integer soldQuantity;
+
+    private Date createTime;
+}
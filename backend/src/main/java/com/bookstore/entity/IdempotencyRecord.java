@@ -0,0 +1,36 @@
+package com.bookstore.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.Date;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class IdempotencyRecord {
+
+    /**
+     * 接口范围，如 wallet.pay:1，同一个键在不同接口或用户之间互不影响
+     */
+    private String scope;
+
+    private String idempotencyKey;
+
+    /**
+     * 请求体的 SHA-256 摘要，用于识别同一个键被用于不同的请求
+     */
+    private String requestHash;
+
+    // 状态: PROCESSING=处理中, COMPLETED=已完成
+    private String status;
+
+    private Integer responseStatus;
+
+    /**
+     * 响应体（JSON）
+     */
+    private String responseBody;
+
+    private Date createTime;
+}
@@ -0,0 +1,34 @@
+package com.bookstore.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.math.BigDecimal;
+import java.util.Date;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class WalletBalanceCheckpoint {
+
+    private Long id;
+
+    private Long walletId;
+
+    /**
+     * 快照覆盖到的最后一条交易记录ID，之后的交易记录不计入快照
+     */
+    private Long lastTransactionId;
+
+    /**
+     * 快照时的钱包余额
+     */
+    private BigDecimal balance;
+
+    /**
+     * 按交易记录推算的余额（上一个快照的推算余额加上之后的交易金额）
+     */
+    private BigDecimal ledgerBalance;
+
+    private Date createTime;
+}
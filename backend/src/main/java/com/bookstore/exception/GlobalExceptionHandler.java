@@ -13,6 +13,7 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
 
 import jakarta.validation.ConstraintViolation;
 import jakarta.validation.ConstraintViolationException;
+import java.util.List;
 import java.util.stream.Collectors;
 
 /**
@@ -23,6 +24,39 @@ public class GlobalExceptionHandler {
     
     private static final Logger logger = LoggerFactory.getLogger(GlobalExceptionHandler.class);
 
+    /**
+     * 处理库存不足异常，返回每本图书的缺货明细
+     */
+    @ExceptionHandler(InsufficientStockException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ApiResponse<?> handleInsufficientStockException(InsufficientStockException e) {
+        logger.warn("库存不足: {}", e.getMessage());
+        ApiResponse<List<InsufficientStockException.Shortage>> response =
+                ApiResponse.error(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+        response.setData(e.getShortages());
+        return response;
+    }
+
+    /**
+     * 处理服务繁忙异常，请求没有被执行
+     */
+    @ExceptionHandler(ServiceBusyException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public ApiResponse<?> handleServiceBusyException(ServiceBusyException e) {
+        logger.warn("服务繁忙: {}", e.getMessage());
+        return ApiResponse.error(HttpStatus.SERVICE_UNAVAILABLE.value(), e.getMessage());
+    }
+
+    /**
+     * 处理结果未知异常，操作可能仍会提交
+     */
+    @ExceptionHandler(OutcomeUnknownException.class)
+    @ResponseStatus(HttpStatus.GATEWAY_TIMEOUT)
+    public ApiResponse<?> handleOutcomeUnknownException(OutcomeUnknownException e) {
+        logger.error("操作结果未知: {}", e.getMessage());
+        return ApiResponse.error(HttpStatus.GATEWAY_TIMEOUT.value(), e.getMessage());
+    }
+
     /**
      * 处理业务异常
      */
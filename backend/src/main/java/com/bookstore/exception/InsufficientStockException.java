@@ -0,0 +1,64 @@
+package com.bookstore.exception;
+
+import org.springframework.http.HttpStatus;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 库存不足异常，包含每本库存不足图书的明细
+ */
+public class InsufficientStockException extends BusinessException {
+
+    private final List<Shortage> shortages;
+
+    public InsufficientStockException(List<Shortage> shortages) {
+        super(HttpStatus.BAD_REQUEST.value(), buildMessage(shortages));
+        this.shortages = List.copyOf(shortages);
+    }
+
+    public List<Shortage> getShortages() {
+        return shortages;
+    }
+
+    private static String buildMessage(List<Shortage> shortages) {
+        return "库存不足：" + shortages.stream()
+                .map(shortage -> shortage.getTitle() == null
+                        ? "图书" + shortage.getBookId() + "不存在"
+                        : "《" + shortage.getTitle() + "》需要" + shortage.getRequested() + "本，剩余" + shortage.getAvailable() + "本")
+                .collect(Collectors.joining("；"));
+    }
+
+    /**
+     * 单本图书的缺货明细
+     */
+    public static class Shortage {
+        private final Long bookId;
+        private final String title;
+        private final int requested;
+        private final int available;
+
+        public Shortage(Long bookId, String title, int requested, int available) {
+            this.bookId = bookId;
+            this.title = title;
+            this.requested = requested;
+            this.available = available;
+        }
+
+        public Long getBookId() {
+            return bookId;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public int getRequested() {
+            return requested;
+        }
+
+        public int getAvailable() {
+            return available;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.bookstore.exception;
+
+import org.springframework.http.HttpStatus;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 结果未知异常：等待超时时操作已开始执行，之后仍可能提交，不能当作未执行而直接重试
+ */
+public class OutcomeUnknownException extends BusinessException {
+
+    private final CompletableFuture<?> outcome;
+
+    public OutcomeUnknownException(String message, CompletableFuture<?> outcome) {
+        super(HttpStatus.GATEWAY_TIMEOUT.value(), message);
+        this.outcome = outcome;
+    }
+
+    /**
+     * 操作最终的结果，操作失败时以异常完成
+     */
+    public CompletableFuture<?> getOutcome() {
+        return outcome;
+    }
+}
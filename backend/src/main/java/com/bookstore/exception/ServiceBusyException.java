@@ -0,0 +1,13 @@
+package com.bookstore.exception;
+
+import org.springframework.http.HttpStatus;
+
+/**
+ * 服务繁忙异常：请求没有被执行，可以直接重试
+ */
+public class ServiceBusyException extends BusinessException {
+
+    public ServiceBusyException(String message) {
+        super(HttpStatus.SERVICE_UNAVAILABLE.value(), message);
+    }
+}
@@ -4,7 +4,9 @@ import com.bookstore.entity.Book;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 @Mapper
 public interface BookMapper {
@@ -22,6 +24,14 @@ public interface BookMapper {
      */
     List<Book> findAllPaged(@Param("offset") int offset, @Param("limit") int limit);
 
+    /**
+     * 游标分页查询所有图书（按ID升序）
+     * @param afterId 上一页最后一本图书的ID，为null时查询第一页
+     * @param limit 查询数量
+     * @return 图书列表
+     */
+    List<Book> findAllAfter(@Param("afterId") Long afterId, @Param("limit") int limit);
+
     /**
      * 获取图书总数
      * @return 图书总数
@@ -33,6 +43,11 @@ public interface BookMapper {
      */
     Book findById(Long id);
 
+    /**
+     * 根据多个ID批量查询图书
+     */
+    List<Book> findByIds(@Param("ids") Collection<Long> ids);
+
     /**
      * 根据标题模糊查询
      */
@@ -62,6 +77,15 @@ public interface BookMapper {
      */
     List<Book> findByCategoryPaged(@Param("category") String category, @Param("offset") int offset, @Param("limit") int limit);
 
+    /**
+     * 游标分页查询分类图书（按ID升序）
+     * @param category 分类
+     * @param afterId 上一页最后一本图书的ID，为null时查询第一页
+     * @param limit 查询数量
+     * @return 图书列表
+     */
+    List<Book> findByCategoryAfter(@Param("category") String category, @Param("afterId") Long afterId, @Param("limit") int limit);
+
     /**
      * 获取指定分类的图书总数
      * @param category 分类
@@ -88,4 +112,30 @@ public interface BookMapper {
      * 批量删除图书
      */
     int batchDeleteByIds(@Param("bookIds") List<Long> bookIds);
+
+    /**
+     * 条件扣减库存：按图书ID顺序加锁，每本书只在 stock >= 数量 时扣减
+     * @param quantities 图书ID -> 扣减数量
+     * @return 扣减成功的图书ID，不在其中的图书库存不足或不存在
+     */
+    List<Long> reserveStock(@Param("quantities") Map<Long, Integer> quantities);
+
+    /**
+     * 锁定图书行并返回当前库存（SELECT ... FOR UPDATE）
+     * @return 库存，图书不存在时返回null
+     */
+    Integer lockStockById(Long id);
+
+    /**
+     * 批量把库存设置为给定值
+     * @param stocks 图书ID -> 库存
+     */
+    int updateStocks(@Param("stocks") Map<Long, Integer> stocks);
+
+    /**
+     * 按订单项汇总数量，一条语句归还指定订单占用的库存
+     * @param orderIds 订单ID列表
+     * @return 库存发生变化的图书ID
+     */
+    List<Long> restockByOrderIds(@Param("orderIds") List<Long> orderIds);
 }
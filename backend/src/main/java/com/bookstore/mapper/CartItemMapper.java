@@ -13,6 +13,11 @@ public interface CartItemMapper {
      * 查找用户的所有购物车项
      */
     List<CartItem> findByUserId(Long userId);
+
+    /**
+     * 查找并锁定用户的所有购物车项，锁定到事务结束
+     */
+    List<CartItem> lockByUserId(Long userId);
     
     /**
      * 根据ID查找购物车项
@@ -38,6 +43,11 @@ public interface CartItemMapper {
      * 删除购物车项
      */
     int deleteById(Long id);
+
+    /**
+     * 批量删除购物车项
+     */
+    int deleteByIds(@Param("ids") List<Long> ids);
     
     /**
      * 删除用户的所有购物车项
@@ -0,0 +1,30 @@
+package com.bookstore.mapper;
+
+import com.bookstore.entity.FlashSaleBook;
+import org.apache.ibatis.annotations.Mapper;
+
+import java.util.List;
+
+@Mapper
+public interface FlashSaleBookMapper {
+
+    /**
+     * 查询所有秒杀图书，并根据订单项汇总开启秒杀以来的售出数量
+     */
+    List<FlashSaleBook> findAll();
+
+    /**
+     * 根据图书ID查询秒杀图书
+     */
+    FlashSaleBook findByBookId(Long bookId);
+
+    /**
+     * 保存秒杀图书
+     */
+    int save(FlashSaleBook flashSaleBook);
+
+    /**
+     * 删除秒杀图书
+     */
+    int deleteByBookId(Long bookId);
+}
@@ -0,0 +1,62 @@
+package com.bookstore.mapper;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+import java.util.Map;
+
+@Mapper
+public interface FlashSaleLeaseMapper {
+
+    /**
+     * 从图书库存中领取秒杀库存：锁定图书行，领取 min(库存, quantity)，计入本实例的租约
+     * @return 实际领取的数量，库存为0时为0
+     */
+    int lease(@Param("bookId") Long bookId,
+              @Param("nodeId") String nodeId,
+              @Param("quantity") int quantity);
+
+    /**
+     * 把本实例租约中尚未售出的数量更新为内存计数器的值
+     * @return 更新的记录数，租约已被回收时为0
+     */
+    int updateQuantity(@Param("bookId") Long bookId,
+                       @Param("nodeId") String nodeId,
+                       @Param("quantity") int quantity);
+
+    /**
+     * 归还本实例的租约：删除租约并把 quantity 加回图书库存
+     * @return 更新的图书数，租约已被回收时为0
+     */
+    int release(@Param("bookId") Long bookId,
+                @Param("nodeId") String nodeId,
+                @Param("quantity") int quantity);
+
+    /**
+     * 更新本实例所有租约的心跳时间
+     */
+    int touch(@Param("nodeId") String nodeId);
+
+    /**
+     * 查询心跳超时的租约涉及的图书
+     */
+    List<Long> findStaleBookIds(@Param("timeoutMillis") long timeoutMillis);
+
+    /**
+     * 删除图书心跳超时的租约
+     * @return 删除的租约中记录的数量之和
+     */
+    int deleteStale(@Param("bookId") Long bookId, @Param("timeoutMillis") long timeoutMillis);
+
+    /**
+     * 图书所有租约中尚未售出的数量之和
+     */
+    int sumQuantity(@Param("bookId") Long bookId);
+
+    /**
+     * 查询所有秒杀图书的剩余库存（图书库存加上各实例租约中尚未售出的数量）
+     * @return 列：book_id, stock
+     */
+    List<Map<String, Object>> findAvailable();
+}
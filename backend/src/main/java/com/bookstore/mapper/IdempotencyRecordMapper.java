@@ -0,0 +1,43 @@
+package com.bookstore.mapper;
+
+import com.bookstore.entity.IdempotencyRecord;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+
+@Mapper
+public interface IdempotencyRecordMapper {
+
+    /**
+     * 占用幂等键：键不存在时插入处理中的记录，处理中的记录不会因超时被重新占用
+     * @return 1表示占用成功，0表示键已被占用或已完成
+     */
+    int claim(IdempotencyRecord record);
+
+    /**
+     * 查询幂等记录
+     */
+    IdempotencyRecord find(@Param("scope") String scope, @Param("idempotencyKey") String idempotencyKey);
+
+    /**
+     * 保存请求结果并标记为已完成
+     */
+    int complete(IdempotencyRecord record);
+
+    /**
+     * 删除幂等记录，请求失败后释放键以便重试
+     */
+    int delete(@Param("scope") String scope, @Param("idempotencyKey") String idempotencyKey);
+
+    /**
+     * 删除指定时间之前的已完成幂等记录，处理中的记录保留到人工确认
+     * @return 删除的数量
+     */
+    int deleteCompletedBefore(@Param("before") LocalDateTime before);
+
+    /**
+     * 统计指定时间之前创建、仍处于处理中的幂等记录
+     */
+    int countProcessingBefore(@Param("before") LocalDateTime before);
+}
@@ -2,8 +2,11 @@ package com.bookstore.mapper;
 
 import com.bookstore.entity.OrderItem;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 
 @Mapper
 public interface OrderItemMapper {
@@ -23,6 +26,35 @@ public interface OrderItemMapper {
      */
     List<OrderItem> findByOrderId(Long orderId);
 
+    /**
+     * 根据多个订单ID批量查找订单项，结果中的 order 只包含订单ID
+     */
+    List<OrderItem> findByOrderIds(@Param("orderIds") List<Long> orderIds);
+
+    /**
+     * 查询时间范围内已支付订单中销量最高的图书，在数据库中分组排序，只返回前 limit 行
+     * @param from 下单时间下限（包含），为null时不限
+     * @param to 下单时间上限（不包含），为null时不限
+     * @return 列：book_id, title, quantity, amount
+     */
+    List<Map<String, Object>> findTopBooksBetween(@Param("from") LocalDateTime from,
+                                                  @Param("to") LocalDateTime to,
+                                                  @Param("limit") int limit);
+
+    /**
+     * 按图书分类汇总时间范围内已支付订单的销量
+     * @param from 下单时间下限（包含），为null时不限
+     * @param to 下单时间上限（不包含），为null时不限
+     * @return 列：category, quantity, amount
+     */
+    List<Map<String, Object>> sumSalesByCategoryBetween(@Param("from") LocalDateTime from,
+                                                        @Param("to") LocalDateTime to);
+
+    /**
+     * 获取订单项的最大ID，没有订单项时返回0
+     */
+    long findMaxId();
+
     /**
      * 根据图书ID查找订单项
      */
@@ -57,4 +89,9 @@ public interface OrderItemMapper {
      * 根据订单ID删除订单项
      */
     int deleteByOrderId(Long orderId);
+
+    /**
+     * 根据多个订单ID批量删除订单项
+     */
+    int deleteByOrderIds(@Param("orderIds") List<Long> orderIds);
 }
@@ -1,9 +1,12 @@
 package com.bookstore.mapper;
 
 import com.bookstore.entity.Order;
+import com.bookstore.util.PageCursor;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Mapper
@@ -22,6 +25,14 @@ public interface OrderMapper {
      */
     List<Order> findAllPaged(@Param("offset") int offset, @Param("limit") int limit);
 
+    /**
+     * 游标分页查询所有订单（按下单时间、ID降序）
+     * @param cursor 上一页最后一个订单的游标，为null时查询第一页
+     * @param limit 查询数量
+     * @return 订单列表
+     */
+    List<Order> findAllBefore(@Param("cursor") PageCursor cursor, @Param("limit") int limit);
+
     /**
      * 获取订单总数
      * @return 订单总数
@@ -33,6 +44,13 @@ public interface OrderMapper {
      */
     Order findById(Long id);
 
+    /**
+     * 根据ID批量查找订单（不含订单项）
+     * @param ids 订单ID列表
+     * @return 存在的订单，顺序不保证
+     */
+    List<Order> findByIds(@Param("ids") Collection<Long> ids);
+
     /**
      * 根据用户ID查找订单
      */
@@ -52,6 +70,36 @@ public interface OrderMapper {
      */
     List<Order> findByUserIdPaged(@Param("userId") Long userId, @Param("offset") int offset, @Param("limit") int limit);
 
+    /**
+     * 根据用户ID游标分页查询订单（按下单时间、ID降序）
+     * @param userId 用户ID
+     * @param cursor 上一页最后一个订单的游标，为null时查询第一页
+     * @param limit 查询数量
+     * @return 订单列表
+     */
+    List<Order> findByUserIdBefore(@Param("userId") Long userId, @Param("cursor") PageCursor cursor, @Param("limit") int limit);
+
+    /**
+     * 查询所有待支付订单的ID和下单时间，用于初始化过期队列
+     */
+    List<Order> findPendingDeadlines();
+
+    /**
+     * 查询下单时间早于指定时间的待支付订单ID
+     * @param before 截止时间
+     * @param limit 查询数量
+     * @return 订单ID列表
+     */
+    List<Long> findPendingIdsBefore(@Param("before") LocalDateTime before, @Param("limit") int limit);
+
+    /**
+     * 锁定指定订单中仍处于待支付状态且下单时间不晚于截止时间的订单（SELECT ... FOR UPDATE）
+     * @param ids 候选订单ID
+     * @param before 截止时间
+     * @return 成功锁定的订单ID列表
+     */
+    List<Long> lockPendingBefore(@Param("ids") List<Long> ids, @Param("before") LocalDateTime before);
+
     /**
      * 获取用户订单总数
      * @param userId 用户ID
@@ -69,8 +117,29 @@ public interface OrderMapper {
      */
     int update(Order order);
 
+    /**
+     * 只在订单处于预期状态时更新状态，用于支付、退款等状态流转
+     * @return 更新的行数，0表示订单不存在或状态已变化
+     */
+    int updateStatusIfCurrent(@Param("id") Long id, @Param("expected") Integer expected, @Param("status") Integer status);
+
+    /**
+     * 批量更新处于预期状态的订单的状态（UPDATE ... WHERE id IN (...) AND status = 预期状态）
+     * @param ids 订单ID列表
+     * @param expected 预期的当前状态
+     * @param status 新状态
+     * @return 实际被更新的订单ID，状态已变化或不存在的订单不在其中
+     */
+    List<Long> updateStatusIfCurrentByIds(@Param("ids") Collection<Long> ids, @Param("expected") Integer expected,
+                                          @Param("status") Integer status);
+
     /**
      * 删除订单
      */
     int deleteById(Long id);
+
+    /**
+     * 批量删除订单
+     */
+    int deleteByIds(@Param("ids") List<Long> ids);
 }
@@ -0,0 +1,27 @@
+package com.bookstore.mapper;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+@Mapper
+public interface OrderNodeLeaseMapper {
+
+    /**
+     * 领取编号最小的空闲或心跳超时的节点号
+     * @return 领取到的节点号，没有可用节点号或与其他实例同时领取了同一个节点号时为 null
+     */
+    Integer acquire(@Param("owner") String owner,
+                    @Param("maxNodeId") long maxNodeId,
+                    @Param("timeoutMillis") long timeoutMillis);
+
+    /**
+     * 更新节点号租约的心跳时间
+     * @return 更新的记录数，租约已被其他实例领取时为0
+     */
+    int touch(@Param("nodeId") long nodeId, @Param("owner") String owner);
+
+    /**
+     * 归还节点号
+     */
+    int release(@Param("nodeId") long nodeId, @Param("owner") String owner);
+}
@@ -0,0 +1,82 @@
+package com.bookstore.mapper;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+@Mapper
+public interface SalesRollupMapper {
+
+    /**
+     * 按ID顺序锁定订单，保证记录增量时读取到的订单状态在本事务提交前不会被修改
+     * @return 锁定的订单ID
+     */
+    List<Long> lockOrders(@Param("orderIds") Collection<Long> orderIds);
+
+    /**
+     * 追加订单的汇总增量：每个订单一条订单级记录（book_id为空），已支付订单另外每个订单项一条记录
+     * @param orderIds 订单ID，为null时处理全部订单（重建汇总）
+     * @param sign 1表示计入，-1表示撤销
+     * @param status 按该状态记录，为null时使用订单的当前状态
+     * @return 追加的记录数
+     */
+    int insertDeltas(@Param("orderIds") Collection<Long> orderIds,
+                     @Param("sign") int sign,
+                     @Param("status") Integer status);
+
+    /**
+     * 取出最早的一批增量合并到各汇总表并删除，多个实例同时合并时互不重复
+     * @param limit 每次合并的增量记录数上限
+     * @return 合并的增量记录数
+     */
+    int fold(@Param("limit") int limit);
+
+    /**
+     * 以排他模式锁定增量表，重建期间新的增量等待重建提交后再写入
+     */
+    void lockDeltas();
+
+    /**
+     * 清空增量表和全部汇总表
+     */
+    void clear();
+
+    /**
+     * 查询时间范围内的销售额
+     * @param granularity HOUR, DAY 或 MONTH
+     * @param from 开始时间（包含）
+     * @param to 结束时间（不包含）
+     * @return 列：bucket_start, order_count, quantity, amount
+     */
+    List<Map<String, Object>> findSales(@Param("granularity") String granularity,
+                                        @Param("from") LocalDateTime from,
+                                        @Param("to") LocalDateTime to);
+
+    /**
+     * 查询累计销量最高的图书
+     * @return 列：book_id, title, quantity, amount
+     */
+    List<Map<String, Object>> findTopBooks(@Param("limit") int limit);
+
+    /**
+     * 查询各分类的累计销量
+     * @return 列：category, quantity, amount
+     */
+    List<Map<String, Object>> findCategorySales();
+
+    /**
+     * 查询各状态的订单数量
+     * @return 列：status, order_count
+     */
+    List<Map<String, Object>> findStatusCounts();
+
+    /**
+     * 查询累计销售额和订单总数
+     * @return 列：total_sales, total_orders
+     */
+    Map<String, Object> findTotals();
+}
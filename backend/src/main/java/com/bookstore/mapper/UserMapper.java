@@ -4,7 +4,6 @@ import com.bookstore.entity.User;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
-import java.math.BigDecimal;
 import java.util.List;
 
 @Mapper
@@ -23,6 +22,14 @@ public interface UserMapper {
      */
     List<User> findAllPaged(@Param("offset") int offset, @Param("limit") int limit);
 
+    /**
+     * 游标分页查询所有用户（按ID升序）
+     * @param afterId 上一页最后一个用户的ID，为null时查询第一页
+     * @param limit 查询数量
+     * @return 用户列表
+     */
+    List<User> findAllAfter(@Param("afterId") Long afterId, @Param("limit") int limit);
+
     /**
      * 获取用户总数
      * @return 用户总数
@@ -58,12 +65,4 @@ public interface UserMapper {
      * 删除用户
      */
     int deleteById(Long id);
-
-    /**
-     * 更新用户余额
-     * @param userId 用户ID
-     * @param amount 变动金额（正数为增加，负数为减少）
-     * @return 影响的行数
-     */
-    int updateBalance(@Param("userId") Long userId, @Param("amount") BigDecimal amount);
 }
@@ -0,0 +1,69 @@
+package com.bookstore.mapper;
+
+import com.bookstore.entity.WalletBalanceCheckpoint;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+@Mapper
+public interface WalletBalanceCheckpointMapper {
+
+    /**
+     * 查询需要生成快照的钱包：还没有快照，或最近的快照之后有新的交易记录
+     * @param afterId 只查询ID大于该值的钱包
+     * @param limit 查询数量
+     * @return 钱包ID列表，按ID升序
+     */
+    List<Long> findWalletIdsToCheckpoint(@Param("afterId") Long afterId, @Param("limit") int limit);
+
+    /**
+     * 为指定钱包各生成一个快照，只汇总上一个快照之后的交易记录
+     * 调用前需要锁定这些钱包，保证已写入余额的交易记录都已提交
+     * @return 生成的快照数量
+     */
+    int createForWallets(@Param("walletIds") List<Long> walletIds);
+
+    /**
+     * 查询钱包在指定时间及之前的最近一个快照
+     * @param walletId 钱包ID
+     * @param time 时间，为null时查询最新的快照
+     */
+    WalletBalanceCheckpoint findLatest(@Param("walletId") Long walletId, @Param("time") LocalDateTime time);
+
+    /**
+     * 汇总快照之后、指定时间及之前的交易金额
+     * @param walletId 钱包ID
+     * @param afterTransactionId 只汇总ID大于该值的交易记录
+     * @param time 时间上限（包含）
+     */
+    BigDecimal sumAmountAfter(@Param("walletId") Long walletId,
+                              @Param("afterTransactionId") Long afterTransactionId,
+                              @Param("time") LocalDateTime time);
+
+    /**
+     * 在同一条语句中读取用户钱包的当前余额、最新快照以及快照之后的交易汇总，三者来自同一时刻
+     * @return 列：wallet_id, balance, checkpoint_id, last_transaction_id, checkpoint_balance,
+     *         checkpoint_ledger_balance, checkpoint_time, amount_since, count_since；用户没有钱包时为null
+     */
+    Map<String, Object> reconcileByUserId(@Param("userId") Long userId);
+
+    /**
+     * 查询用户ID的最小值和最大值，用于划分对账区间
+     * @return 列：min_id, max_id；没有用户时两列都为null
+     */
+    Map<String, Object> findUserIdRange();
+
+    /**
+     * 以游标方式逐行读取ID区间内每个用户的钱包余额、最新快照由交易记录推算的余额和快照之后的交易汇总，用于批量对账
+     * 必须在事务中调用并在事务结束前读完
+     * @param fromId 用户ID下限（包含）
+     * @param toId 用户ID上限（包含）
+     * @return 列：user_id, legacy_balance, wallet_id, balance, checkpoint_id, checkpoint_ledger_balance, amount_since
+     */
+    Cursor<Map<String, Object>> streamReconciliationRange(@Param("fromId") long fromId, @Param("toId") long toId);
+}
@@ -5,6 +5,7 @@ import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 @Mapper
 public interface WalletMapper {
@@ -34,6 +35,21 @@ public interface WalletMapper {
      */
     int updateBalance(@Param("id") Long id, @Param("amount") BigDecimal amount);
     
+    /**
+     * 扣减钱包余额：余额检查和扣减在一条语句中完成
+     * @param id 钱包ID
+     * @param amount 扣减金额（正数）
+     * @return 扣减后的余额，余额不足时返回null且不做任何修改
+     */
+    BigDecimal debit(@Param("id") Long id, @Param("amount") BigDecimal amount);
+
+    /**
+     * 以共享锁锁定钱包，跳过正在进行资金操作（持有行锁）的钱包
+     * @param ids 钱包ID列表
+     * @return 成功锁定的钱包ID
+     */
+    List<Long> lockIdleForShare(@Param("ids") List<Long> ids);
+
     /**
      * 删除钱包
      */
@@ -1,37 +1,90 @@
 package com.bookstore.mapper;
 
+import com.bookstore.dto.WalletTransactionDTO;
 import com.bookstore.entity.WalletTransaction;
+import com.bookstore.util.PageCursor;
 import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Mapper
 public interface WalletTransactionMapper {
     
     /**
-     * 根据ID查找交易记录
+     * 根据ID查找交易记录（详情，包含钱包、用户和关联订单）
      */
     WalletTransaction findById(Long id);
     
     /**
-     * 根据钱包ID查找交易记录
+     * 根据钱包ID查找交易记录（列表投影，不连接钱包和用户）
      */
-    List<WalletTransaction> findByWalletId(Long walletId);
+    List<WalletTransactionDTO> findByWalletId(Long walletId);
     
     /**
-     * 根据用户ID查找交易记录
+     * 根据用户ID查找交易记录（列表投影）
      */
-    List<WalletTransaction> findByUserId(Long userId);
+    List<WalletTransactionDTO> findByUserId(Long userId);
     
     /**
-     * 根据订单ID查找交易记录
+     * 按条件分页查询钱包的交易记录（按创建时间、ID排序），筛选、排序和分页都在数据库中完成
+     * 返回的 createTime 为 java.sql.Timestamp，保留数据库中的完整精度，可直接用于生成游标
+     * @param walletId 钱包ID
+     * @param type 交易类型，为null时不筛选
+     * @param start 创建时间下限（包含），为null时不限
+     * @param end 创建时间上限（不包含），为null时不限
+     * @param cursor 上一页最后一条记录的游标，为null时从第一条开始
+     * @param ascending 是否按时间升序
+     * @param offset 偏移量，使用游标时为0
+     * @param limit 查询数量
+     * @return 交易记录列表
      */
-    List<WalletTransaction> findByOrderId(Long orderId);
+    List<WalletTransactionDTO> findPageByWalletId(@Param("walletId") Long walletId,
+                                               @Param("type") String type,
+                                               @Param("start") LocalDateTime start,
+                                               @Param("end") LocalDateTime end,
+                                               @Param("cursor") PageCursor cursor,
+                                               @Param("ascending") boolean ascending,
+                                               @Param("offset") int offset,
+                                               @Param("limit") int limit);
+
+    /**
+     * 统计钱包中符合条件的交易记录数量
+     */
+    int countByWalletId(@Param("walletId") Long walletId,
+                        @Param("type") String type,
+                        @Param("start") LocalDateTime start,
+                        @Param("end") LocalDateTime end);
+    
+    /**
+     * 以游标方式按创建时间升序逐行读取钱包中符合条件的交易记录，用于导出
+     * 必须在事务中调用并在事务结束前读完，读取过程中不会在内存中保留已读取的记录
+     * @param walletId 钱包ID
+     * @param type 交易类型，为null时不筛选
+     * @param start 创建时间下限（包含），为null时不限
+     * @param end 创建时间上限（不包含），为null时不限
+     */
+    Cursor<WalletTransactionDTO> streamByWalletId(@Param("walletId") Long walletId,
+                                               @Param("type") String type,
+                                               @Param("start") LocalDateTime start,
+                                               @Param("end") LocalDateTime end);
+    
+    /**
+     * 根据订单ID查找交易记录（列表投影）
+     */
+    List<WalletTransactionDTO> findByOrderId(Long orderId);
     
     /**
      * 保存交易记录
      */
     int save(WalletTransaction transaction);
+
+    /**
+     * 批量保存交易记录（一条多行 INSERT），生成的ID回填到各记录
+     */
+    int batchSave(List<WalletTransaction> transactions);
     
     /**
      * 更新交易记录
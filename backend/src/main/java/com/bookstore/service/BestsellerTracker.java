@@ -0,0 +1,284 @@
+package com.bookstore.service;
+
+import com.bookstore.entity.OrderItem;
+import com.bookstore.exception.BusinessException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 实时畅销榜
+ *
+ * 订单支付成功（事务提交）后把订单项计入最近一小时、一天和一周的畅销榜，全站一份，每个图书分类各一份。
+ * 每个窗口由若干时间段组成，每个时间段用 Space-Saving 算法只保留固定数量的计数器：
+ * 图书数量再多，内存占用也是固定的，计数器数量远大于榜单长度时前几名是准确的。
+ * 窗口随时间滑动，过期的时间段整体丢弃。合并后的榜单按刷新间隔缓存，查询只截取前 limit 项，不访问数据库。
+ * 退款不会从榜单中扣除，榜单反映的是支付热度。
+ */
+@Component
+public class BestsellerTracker {
+
+    /**
+     * 窗口名称 -> 时间段数量和每段时长
+     */
+    private static final Map<String, long[]> WINDOWS = new LinkedHashMap<>();
+
+    static {
+        WINDOWS.put("hour", new long[]{12, 5 * 60 * 1000L});
+        WINDOWS.put("day", new long[]{24, 60 * 60 * 1000L});
+        WINDOWS.put("week", new long[]{28, 6 * 60 * 60 * 1000L});
+    }
+
+    /**
+     * 每个时间段保留的计数器数量
+     */
+    @Value("${app.bestseller.capacity:100}")
+    private int capacity;
+
+    /**
+     * 合并榜单的缓存时间
+     */
+    @Value("${app.bestseller.refresh-ms:1000}")
+    private long refreshMillis;
+
+    private final Map<String, SlidingTopK> global = new ConcurrentHashMap<>();
+
+    private final Map<String, Map<String, SlidingTopK>> byCategory = new ConcurrentHashMap<>();
+
+    /**
+     * 记录已支付订单的订单项，在事务中调用时于提交后生效，回滚的支付不会被计入
+     * 应在支付的最后一步调用，之后不应再有使本次支付失败的操作
+     * @param items 订单项，book 需要包含ID、书名和分类
+     */
+    public void recordAfterCommit(List<OrderItem> items) {
+        if (items == null || items.isEmpty()) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    record(items, System.currentTimeMillis());
+                }
+            });
+        } else {
+            record(items, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 获取畅销榜
+     * @param window 窗口：hour, day, week
+     * @param category 图书分类，为空时为全站榜单
+     * @param limit 榜单长度
+     * @return 按销量降序的图书：bookId, title, sales, error（sales 与真实销量之间可能的最大偏差）
+     */
+    public List<Map<String, Object>> getBestsellers(String window, String category, int limit) {
+        if (!WINDOWS.containsKey(window)) {
+            throw new BusinessException(HttpStatus.BAD_REQUEST.value(), "无效的时间窗口");
+        }
+        SlidingTopK topK = category == null || category.isBlank()
+                ? global.get(window)
+                : byCategory.getOrDefault(category, Collections.emptyMap()).get(window);
+        if (topK == null) {
+            return Collections.emptyList();
+        }
+        List<Map<String, Object>> ranking = topK.ranking(System.currentTimeMillis());
+        return ranking.subList(0, Math.min(Math.max(limit, 0), ranking.size()));
+    }
+
+    private void record(List<OrderItem> items, long now) {
+        for (OrderItem item : items) {
+            Long bookId = item.getBook().getId();
+            String title = item.getBook().getTitle();
+            String category = item.getBook().getCategory();
+            int quantity = item.getQuantity();
+            for (String window : WINDOWS.keySet()) {
+                global.computeIfAbsent(window, this::newWindow).add(bookId, title, quantity, now);
+                if (category != null && !category.isBlank()) {
+                    byCategory.computeIfAbsent(category, key -> new ConcurrentHashMap<>())
+                            .computeIfAbsent(window, this::newWindow)
+                            .add(bookId, title, quantity, now);
+                }
+            }
+        }
+    }
+
+    private SlidingTopK newWindow(String window) {
+        long[] spec = WINDOWS.get(window);
+        return new SlidingTopK((int) spec[0], spec[1], capacity, refreshMillis);
+    }
+
+    /**
+     * 滑动窗口畅销榜：环形排列的时间段，每段一个 Space-Saving 摘要
+     */
+    private static final class SlidingTopK {
+        private final long bucketMillis;
+        private final SpaceSaving[] buckets;
+        private final long[] bucketIndexes;
+        private final long refreshMillis;
+        private List<Map<String, Object>> ranking = Collections.emptyList();
+        private long rankedAt;
+        private long rankedBucket = -1;
+        private boolean dirty;
+
+        private SlidingTopK(int bucketCount, long bucketMillis, int capacity, long refreshMillis) {
+            this.bucketMillis = bucketMillis;
+            this.refreshMillis = refreshMillis;
+            this.buckets = new SpaceSaving[bucketCount];
+            this.bucketIndexes = new long[bucketCount];
+            for (int i = 0; i < bucketCount; i++) {
+                buckets[i] = new SpaceSaving(capacity);
+                bucketIndexes[i] = -1;
+            }
+        }
+
+        private synchronized void add(Long bookId, String title, int quantity, long now) {
+            long index = now / bucketMillis;
+            int slot = (int) (index % buckets.length);
+            if (bucketIndexes[slot] != index) {
+                // 该位置保存的是已滑出窗口的时间段
+                buckets[slot].clear();
+                bucketIndexes[slot] = index;
+            }
+            buckets[slot].offer(bookId, title, quantity);
+            dirty = true;
+        }
+
+        /**
+         * 合并窗口内各时间段的摘要，有新数据或窗口滑动时按刷新间隔重新计算
+         */
+        private synchronized List<Map<String, Object>> ranking(long now) {
+            long index = now / bucketMillis;
+            boolean slid = index != rankedBucket;
+            if (!slid && !(dirty && now - rankedAt >= refreshMillis)) {
+                return ranking;
+            }
+
+            // 图书不在某个已满时间段的摘要中时，它在该段的真实销量最多为该段最小的计数，计入误差上限
+            Map<Long, SpaceSaving.Counter> merged = new HashMap<>();
+            List<SpaceSaving> live = new ArrayList<>(buckets.length);
+            long minCountSum = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                if (bucketIndexes[i] > index - buckets.length) {
+                    live.add(buckets[i]);
+                    minCountSum += buckets[i].minCount();
+                    for (SpaceSaving.Counter counter : buckets[i].counters()) {
+                        merged.merge(counter.bookId, counter.copy(), SpaceSaving.Counter::add);
+                    }
+                }
+            }
+            for (SpaceSaving.Counter counter : merged.values()) {
+                long missing = minCountSum;
+                for (SpaceSaving bucket : live) {
+                    if (bucket.contains(counter.bookId)) {
+                        missing -= bucket.minCount();
+                    }
+                }
+                counter.error += missing;
+            }
+            List<SpaceSaving.Counter> counters = new ArrayList<>(merged.values());
+            counters.sort(Comparator.comparingLong((SpaceSaving.Counter counter) -> counter.count).reversed()
+                    .thenComparing(counter -> counter.bookId));
+
+            List<Map<String, Object>> result = new ArrayList<>(Math.min(counters.size(), buckets[0].capacity));
+            for (SpaceSaving.Counter counter : counters.subList(0, Math.min(counters.size(), buckets[0].capacity))) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("bookId", counter.bookId);
+                item.put("title", counter.title);
+                item.put("sales", counter.count);
+                item.put("error", counter.error);
+                result.add(item);
+            }
+            ranking = Collections.unmodifiableList(result);
+            rankedAt = now;
+            rankedBucket = index;
+            dirty = false;
+            return ranking;
+        }
+    }
+
+    /**
+     * Space-Saving 摘要：最多保留 capacity 个计数器，新图书替换计数最小的计数器并继承其计数作为误差上限
+     */
+    private static final class SpaceSaving {
+        private final int capacity;
+        private final Map<Long, Counter> counters;
+
+        private SpaceSaving(int capacity) {
+            this.capacity = capacity;
+            this.counters = new HashMap<>(capacity * 2);
+        }
+
+        private void offer(Long bookId, String title, int quantity) {
+            Counter counter = counters.get(bookId);
+            if (counter != null) {
+                counter.count += quantity;
+                counter.title = title;
+                return;
+            }
+            if (counters.size() < capacity) {
+                counters.put(bookId, new Counter(bookId, title, quantity, 0));
+                return;
+            }
+            Counter min = Collections.min(counters.values(), Comparator.comparingLong(c -> c.count));
+            counters.remove(min.bookId);
+            counters.put(bookId, new Counter(bookId, title, min.count + quantity, min.count));
+        }
+
+        private Collection<Counter> counters() {
+            return counters.values();
+        }
+
+        private boolean contains(Long bookId) {
+            return counters.containsKey(bookId);
+        }
+
+        /**
+         * 未被记录的图书在该时间段的销量上限：摘要已满时为最小计数，未满时所有售出的图书都有计数器，为0
+         */
+        private long minCount() {
+            if (counters.size() < capacity) {
+                return 0;
+            }
+            long min = Long.MAX_VALUE;
+            for (Counter counter : counters.values()) {
+                min = Math.min(min, counter.count);
+            }
+            return min;
+        }
+
+        private void clear() {
+            counters.clear();
+        }
+
+        private static final class Counter {
+            private final Long bookId;
+            private String title;
+            private long count;
+            private long error;
+
+            private Counter(Long bookId, String title, long count, long error) {
+                this.bookId = bookId;
+                this.title = title;
+                this.count = count;
+                this.error = error;
+            }
+
+            private Counter copy() {
+                return new Counter(bookId, title, count, error);
+            }
+
+            private Counter add(Counter other) {
+                count += other.count;
+                error += other.error;
+                return this;
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.bookstore.service;
+
+import com.bookstore.entity.Book;
+import com.bookstore.mapper.BookMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图书目录进程内缓存
+ *
+ * 全量列表、按ID、按分类的读取优先走内存；写操作按图书ID精确失效，
+ * 失效的图书在下次读取时单独回源，不会整表重载。
+ * 每次失效都会递增版本号，加载期间发生过失效的结果不会写回缓存，避免旧数据覆盖新数据。
+ */
+@Component
+public class BookCatalogCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookCatalogCache.class);
+
+    @Autowired
+    private BookMapper bookMapper;
+
+    /**
+     * 缓存的最大图书条目数，目录超过该规模时不再缓存全量快照
+     */
+    @Value("${app.cache.book.max-entries:10000}")
+    private int maxEntries;
+
+    /**
+     * 缓存的最大分类列表数
+     */
+    @Value("${app.cache.book.max-categories:256}")
+    private int maxCategories;
+
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * 全量快照，未加载或目录超出容量时为null
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * 待回源的图书ID -> 失效时的版本号
+     */
+    private final Map<Long, Long> staleIds = new ConcurrentHashMap<>();
+
+    /**
+     * 没有全量快照时使用的按ID缓存（LRU）
+     */
+    private final Map<Long, Book> byId = Collections.synchronizedMap(new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Book> eldest) {
+            return size() > maxEntries;
+        }
+    });
+
+    /**
+     * 没有全量快照时使用的按分类缓存（LRU）
+     */
+    private final Map<String, List<Book>> byCategory = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<Book>> eldest) {
+            return size() > maxCategories;
+        }
+    });
+
+    /**
+     * 获取所有图书
+     */
+    public List<Book> getAll() {
+        Snapshot current = currentSnapshot();
+        if (current != null) {
+            return copyOf(current.books);
+        }
+
+        long loadVersion = version.get();
+        List<Book> books = bookMapper.findAll();
+        if (books.size() <= maxEntries) {
+            installSnapshot(new Snapshot(books), loadVersion);
+        } else {
+            logger.warn("图书目录共{}条，超过缓存上限{}，不缓存全量列表", books.size(), maxEntries);
+        }
+        return copyOf(books);
+    }
+
+    /**
+     * 根据ID获取图书
+     */
+    public Book get(Long id) {
+        if (id == null) {
+            return null;
+        }
+
+        Snapshot current = currentSnapshot();
+        if (current != null) {
+            Book cached = current.byId.get(id);
+            if (cached != null) {
+                return copyOf(cached);
+            }
+            // 快照中没有的ID回源确认一次，其他实例新增的图书会在下次读取时补入快照
+            Book book = bookMapper.findById(id);
+            if (book != null) {
+                doEvict(List.of(id));
+            }
+            return book;
+        }
+
+        if (!staleIds.containsKey(id)) {
+            Book cached = byId.get(id);
+            if (cached != null) {
+                return copyOf(cached);
+            }
+        }
+
+        long loadVersion = version.get();
+        Book book = bookMapper.findById(id);
+        if (book != null && version.get() == loadVersion) {
+            byId.put(id, book);
+            staleIds.remove(id);
+        }
+        return copyOf(book);
+    }
+
+    /**
+     * 根据分类获取图书
+     */
+    public List<Book> getByCategory(String category) {
+        Snapshot current = currentSnapshot();
+        if (current != null) {
+            return copyOf(current.byCategory.getOrDefault(category, List.of()));
+        }
+
+        List<Book> cached = byCategory.get(category);
+        if (cached != null) {
+            return copyOf(cached);
+        }
+
+        long loadVersion = version.get();
+        List<Book> books = bookMapper.findByCategory(category);
+        if (version.get() == loadVersion) {
+            byCategory.put(category, List.copyOf(books));
+        }
+        return copyOf(books);
+    }
+
+    /**
+     * 获取所有分类，有全量快照时直接从快照计算
+     */
+    public List<String> getCategories() {
+        Snapshot current = currentSnapshot();
+        if (current != null) {
+            return new ArrayList<>(current.categories);
+        }
+        return bookMapper.findAllCategories();
+    }
+
+    /**
+     * 使指定图书的缓存失效
+     * 在事务中调用时，事务提交后会再失效一次，防止提交前被其他请求读回旧数据
+     */
+    public void evict(Collection<Long> bookIds) {
+        if (bookIds == null || bookIds.isEmpty()) {
+            return;
+        }
+        doEvict(bookIds);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            List<Long> ids = List.copyOf(bookIds);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    doEvict(ids);
+                }
+            });
+        }
+    }
+
+    /**
+     * 使单本图书的缓存失效
+     */
+    public void evict(Long bookId) {
+        if (bookId != null) {
+            evict(List.of(bookId));
+        }
+    }
+
+    /**
+     * 清空所有缓存
+     */
+    public synchronized void clear() {
+        version.incrementAndGet();
+        snapshot = null;
+        staleIds.clear();
+        byId.clear();
+        byCategory.clear();
+    }
+
+    private void doEvict(Collection<Long> bookIds) {
+        long evictVersion = version.incrementAndGet();
+        for (Long id : bookIds) {
+            staleIds.put(id, evictVersion);
+            byId.remove(id);
+        }
+        // 分类列表可能包含被修改的图书，分类本身也可能变化
+        byCategory.clear();
+    }
+
+    /**
+     * 获取当前快照，存在待回源的图书时只重新加载这些图书
+     */
+    private Snapshot currentSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null || staleIds.isEmpty()) {
+            return current;
+        }
+
+        synchronized (this) {
+            current = snapshot;
+            if (current == null || staleIds.isEmpty()) {
+                return current;
+            }
+
+            Map<Long, Long> pending = new HashMap<>(staleIds);
+            Map<Long, Book> byIdCopy = new LinkedHashMap<>(current.byId);
+            for (Long id : pending.keySet()) {
+                Book book = bookMapper.findById(id);
+                if (book != null) {
+                    byIdCopy.put(id, book);
+                } else {
+                    byIdCopy.remove(id);
+                }
+            }
+
+            // 加载期间再次失效的ID版本号已变化，会留在待回源集合中等待下次刷新
+            Snapshot refreshed = new Snapshot(new ArrayList<>(byIdCopy.values()));
+            snapshot = refreshed;
+            pending.forEach(staleIds::remove);
+            return refreshed;
+        }
+    }
+
+    private synchronized void installSnapshot(Snapshot loaded, long loadVersion) {
+        if (version.get() == loadVersion) {
+            snapshot = loaded;
+            staleIds.clear();
+        }
+    }
+
+    private static List<Book> copyOf(List<Book> books) {
+        List<Book> result = new ArrayList<>(books.size());
+        for (Book book : books) {
+            result.add(copyOf(book));
+        }
+        return result;
+    }
+
+    /**
+     * 返回副本，防止调用方修改缓存中的对象
+     */
+    private static Book copyOf(Book book) {
+        if (book == null) {
+            return null;
+        }
+        return new Book(book.getId(), book.getTitle(), book.getAuthor(), book.getPrice(),
+                book.getStock(), book.getCategory(), book.getDescription());
+    }
+
+    /**
+     * 不可变的全量目录快照
+     */
+    private static final class Snapshot {
+        private final List<Book> books;
+        private final Map<Long, Book> byId;
+        private final Map<String, List<Book>> byCategory;
+        private final List<String> categories;
+
+        private Snapshot(List<Book> books) {
+            List<Book> sorted = new ArrayList<>(books);
+            sorted.sort(Comparator.comparing(Book::getId));
+            this.books = List.copyOf(sorted);
+
+            Map<Long, Book> idIndex = new LinkedHashMap<>();
+            Map<String, List<Book>> categoryIndex = new HashMap<>();
+            Set<String> categorySet = new LinkedHashSet<>();
+            for (Book book : this.books) {
+                idIndex.put(book.getId(), book);
+                if (book.getCategory() != null) {
+                    categoryIndex.computeIfAbsent(book.getCategory(), k -> new ArrayList<>()).add(book);
+                    if (!book.getCategory().isEmpty()) {
+                        categorySet.add(book.getCategory());
+                    }
+                }
+            }
+            this.byId = idIndex;
+            this.byCategory = categoryIndex;
+            this.categories = List.copyOf(categorySet);
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package com.bookstore.service;
+
+import com.bookstore.entity.Book;
+import com.bookstore.mapper.BookMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 图书全文检索倒排索引
+ *
+ * 对标题、作者、分类、简介分字段建立倒排表：中日韩文字按单字和相邻双字切分，
+ * 英文和数字按单词切分并支持前缀匹配；每个单词的后缀另建一张倒排表，按前缀查找后缀即可匹配单词中间的片段
+ * （如 script 匹配 JavaScript），与原先 LIKE '%关键词%' 的结果一致。多个检索词之间为"与"关系，
+ * 按 idf 与字段权重计算相关度排序。
+ */
+@Component
+public class BookSearchIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(BookSearchIndex.class);
+
+    /**
+     * 前缀匹配（非完整单词）的得分折扣
+     */
+    private static final float PREFIX_MATCH_FACTOR = 0.8f;
+
+    /**
+     * 单词中间片段匹配的得分折扣
+     */
+    private static final float INFIX_MATCH_FACTOR = 0.6f;
+
+    /**
+     * 重建索引期间有更新时的重试次数，之后在写锁中读取数据库
+     */
+    private static final int REBUILD_ATTEMPTS = 3;
+
+    /**
+     * 可检索字段及其权重
+     */
+    public enum Field {
+        TITLE(3.0f),
+        AUTHOR(2.0f),
+        CATEGORY(1.5f),
+        DESCRIPTION(1.0f);
+
+        private final float boost;
+
+        Field(float boost) {
+            this.boost = boost;
+        }
+    }
+
+    @Autowired
+    private BookMapper bookMapper;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 字段 -> 词项 -> (图书ID -> 词频)，词项有序以支持前缀查找
+     */
+    private final Map<Field, TreeMap<String, Map<Long, Integer>>> postings = new EnumMap<>(Field.class);
+
+    /**
+     * 字段 -> 英文和数字单词的后缀（不含单词本身）-> (图书ID -> 词频)
+     */
+    private final Map<Field, TreeMap<String, Map<Long, Integer>>> suffixes = new EnumMap<>(Field.class);
+
+    /**
+     * 图书ID -> 字段 -> 词项集合，用于更新和删除时撤销旧的倒排项
+     */
+    private final Map<Long, Map<Field, Set<String>>> documents = new HashMap<>();
+
+    private volatile boolean built;
+
+    /**
+     * 增量更新的次数，在写锁中递增；重建索引时据此判断读取数据库期间是否有更新
+     */
+    private volatile long version;
+
+    public BookSearchIndex() {
+        for (Field field : Field.values()) {
+            postings.put(field, new TreeMap<>());
+            suffixes.put(field, new TreeMap<>());
+        }
+    }
+
+    /**
+     * 应用启动后预先构建索引
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            rebuild();
+        } catch (Exception e) {
+            // 启动时数据库不可用不影响启动，首次检索时再构建
+            logger.warn("构建图书检索索引失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 从数据库全量重建索引
+     * 读取数据库期间如果有增量更新，读到的数据可能早于更新，放弃本次结果重新读取，不会覆盖更新；
+     * 多次重试仍有更新时在写锁中读取，期间的更新等待重建完成后再应用
+     */
+    public void rebuild() {
+        for (int attempt = 1; attempt <= REBUILD_ATTEMPTS; attempt++) {
+            long startVersion = version;
+            List<Book> books = bookMapper.findAll();
+            lock.writeLock().lock();
+            try {
+                if (version == startVersion) {
+                    replaceAll(books);
+                    return;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            replaceAll(bookMapper.findAll());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void replaceAll(List<Book> books) {
+        postings.values().forEach(Map::clear);
+        suffixes.values().forEach(Map::clear);
+        documents.clear();
+        for (Book book : books) {
+            addDocument(book);
+        }
+        built = true;
+        logger.info("图书检索索引构建完成，共{}本图书", books.size());
+    }
+
+    /**
+     * 新增或更新图书的索引，在事务中调用时于提交后生效
+     */
+    public void index(Book book) {
+        if (book == null || book.getId() == null) {
+            return;
+        }
+        afterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                version++;
+                if (built) {
+                    removeDocument(book.getId());
+                    addDocument(book);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * 从索引中移除图书，在事务中调用时于提交后生效
+     */
+    public void remove(Collection<Long> bookIds) {
+        if (bookIds == null || bookIds.isEmpty()) {
+            return;
+        }
+        List<Long> ids = List.copyOf(bookIds);
+        afterCommit(() -> {
+            lock.writeLock().lock();
+            try {
+                version++;
+                ids.forEach(this::removeDocument);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * 检索图书
+     * @param query 在所有字段中检索的关键词（可选）
+     * @param title 只在标题中检索的关键词（可选）
+     * @param author 只在作者中检索的关键词（可选）
+     * @return 按相关度降序排列的图书ID；没有任何检索条件时返回null，检索条件中没有可检索的词（例如只有标点）时返回空列表
+     */
+    public List<Long> search(String query, String title, String author) {
+        if (isBlank(query) && isBlank(title) && isBlank(author)) {
+            return null;
+        }
+        List<Clause> clauses = new ArrayList<>();
+        addClauses(clauses, query, EnumSet.allOf(Field.class));
+        addClauses(clauses, title, EnumSet.of(Field.TITLE));
+        addClauses(clauses, author, EnumSet.of(Field.AUTHOR));
+        if (clauses.isEmpty()) {
+            return List.of();
+        }
+
+        if (!built) {
+            synchronized (this) {
+                if (!built) {
+                    rebuild();
+                }
+            }
+        }
+
+        lock.readLock().lock();
+        try {
+            Map<Long, Float> scores = null;
+            // 从匹配最少的子句开始求交集，减少候选集
+            List<Map<Long, Float>> clauseScores = new ArrayList<>(clauses.size());
+            for (Clause clause : clauses) {
+                Map<Long, Float> matched = evaluate(clause);
+                if (matched.isEmpty()) {
+                    return List.of();
+                }
+                clauseScores.add(matched);
+            }
+            clauseScores.sort(Comparator.comparingInt(Map::size));
+
+            for (Map<Long, Float> matched : clauseScores) {
+                if (scores == null) {
+                    scores = new HashMap<>(matched);
+                } else {
+                    Map<Long, Float> intersection = new HashMap<>();
+                    for (Map.Entry<Long, Float> entry : scores.entrySet()) {
+                        Float score = matched.get(entry.getKey());
+                        if (score != null) {
+                            intersection.put(entry.getKey(), entry.getValue() + score);
+                        }
+                    }
+                    scores = intersection;
+                }
+                if (scores.isEmpty()) {
+                    return List.of();
+                }
+            }
+
+            List<Map.Entry<Long, Float>> ranked = new ArrayList<>(scores.entrySet());
+            ranked.sort(Map.Entry.<Long, Float>comparingByValue().reversed()
+                    .thenComparing(Map.Entry.comparingByKey()));
+            List<Long> result = new ArrayList<>(ranked.size());
+            for (Map.Entry<Long, Float> entry : ranked) {
+                result.add(entry.getKey());
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 计算单个检索词在指定字段上的匹配得分
+     */
+    private Map<Long, Float> evaluate(Clause clause) {
+        Map<Long, Float> matched = new HashMap<>();
+        int totalDocs = Math.max(documents.size(), 1);
+        for (Field field : clause.fields) {
+            TreeMap<String, Map<Long, Integer>> terms = postings.get(field);
+            Map<String, Map<Long, Integer>> candidates = clause.prefix
+                    ? terms.subMap(clause.term, true, clause.term + Character.MAX_VALUE, false)
+                    : singleTerm(terms, clause.term);
+
+            for (Map.Entry<String, Map<Long, Integer>> entry : candidates.entrySet()) {
+                float factor = entry.getKey().equals(clause.term) ? 1.0f : PREFIX_MATCH_FACTOR;
+                score(field, factor, entry.getValue(), totalDocs, matched);
+            }
+            if (clause.prefix) {
+                // 单词中间的片段：以检索词开头的后缀
+                for (Map<Long, Integer> docs : suffixes.get(field)
+                        .subMap(clause.term, true, clause.term + Character.MAX_VALUE, false).values()) {
+                    score(field, INFIX_MATCH_FACTOR, docs, totalDocs, matched);
+                }
+            }
+        }
+        return matched;
+    }
+
+    private static void score(Field field, float factor, Map<Long, Integer> docs, int totalDocs,
+                              Map<Long, Float> matched) {
+        float idf = (float) Math.log(1.0 + (double) totalDocs / docs.size());
+        for (Map.Entry<Long, Integer> doc : docs.entrySet()) {
+            float score = field.boost * factor * idf * (1.0f + (float) Math.log(doc.getValue()));
+            matched.merge(doc.getKey(), score, Math::max);
+        }
+    }
+
+    private static Map<String, Map<Long, Integer>> singleTerm(TreeMap<String, Map<Long, Integer>> terms, String term) {
+        Map<Long, Integer> docs = terms.get(term);
+        return docs == null ? Map.of() : Map.of(term, docs);
+    }
+
+    private void addDocument(Book book) {
+        Map<Field, Set<String>> fields = new EnumMap<>(Field.class);
+        indexField(book.getId(), Field.TITLE, book.getTitle(), fields);
+        indexField(book.getId(), Field.AUTHOR, book.getAuthor(), fields);
+        indexField(book.getId(), Field.CATEGORY, book.getCategory(), fields);
+        indexField(book.getId(), Field.DESCRIPTION, book.getDescription(), fields);
+        documents.put(book.getId(), fields);
+    }
+
+    private void indexField(Long bookId, Field field, String text, Map<Field, Set<String>> fields) {
+        List<String> tokens = tokenize(text, true);
+        if (tokens.isEmpty()) {
+            return;
+        }
+        TreeMap<String, Map<Long, Integer>> terms = postings.get(field);
+        TreeMap<String, Map<Long, Integer>> fieldSuffixes = suffixes.get(field);
+        for (String token : tokens) {
+            terms.computeIfAbsent(token, k -> new HashMap<>()).merge(bookId, 1, Integer::sum);
+            for (String suffix : suffixesOf(token)) {
+                fieldSuffixes.computeIfAbsent(suffix, k -> new HashMap<>()).merge(bookId, 1, Integer::sum);
+            }
+        }
+        fields.put(field, new HashSet<>(tokens));
+    }
+
+    private void removeDocument(Long bookId) {
+        Map<Field, Set<String>> fields = documents.remove(bookId);
+        if (fields == null) {
+            return;
+        }
+        fields.forEach((field, tokens) -> {
+            for (String token : tokens) {
+                removePosting(postings.get(field), token, bookId);
+                for (String suffix : suffixesOf(token)) {
+                    removePosting(suffixes.get(field), suffix, bookId);
+                }
+            }
+        });
+    }
+
+    private static void removePosting(TreeMap<String, Map<Long, Integer>> terms, String term, Long bookId) {
+        Map<Long, Integer> docs = terms.get(term);
+        if (docs != null) {
+            docs.remove(bookId);
+            if (docs.isEmpty()) {
+                terms.remove(term);
+            }
+        }
+    }
+
+    /**
+     * 英文和数字单词除自身以外的所有后缀，中日韩词项已按单字切分，没有后缀
+     */
+    private static List<String> suffixesOf(String token) {
+        if (isCjk(token.codePointAt(0))) {
+            return List.of();
+        }
+        List<String> result = new ArrayList<>();
+        for (int i = token.offsetByCodePoints(0, 1); i < token.length(); i = token.offsetByCodePoints(i, 1)) {
+            result.add(token.substring(i));
+        }
+        return result;
+    }
+
+    private static boolean isBlank(String text) {
+        return text == null || text.isBlank();
+    }
+
+    private static void addClauses(List<Clause> clauses, String text, Set<Field> fields) {
+        if (isBlank(text)) {
+            return;
+        }
+        for (String token : tokenize(text, false)) {
+            // 英文和数字词项按前缀匹配，中日韩字词按精确匹配
+            boolean prefix = !isCjk(token.codePointAt(0));
+            clauses.add(new Clause(token, fields, prefix));
+        }
+    }
+
+    /**
+     * 分词
+     * @param forIndex 建索引时中日韩文字同时输出单字和双字；检索时长度不小于2的片段只输出双字
+     */
+    static List<String> tokenize(String text, boolean forIndex) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+
+        String normalized = text.toLowerCase(Locale.ROOT);
+        StringBuilder word = new StringBuilder();
+        List<Integer> cjkRun = new ArrayList<>();
+        int i = 0;
+        while (i < normalized.length()) {
+            int cp = normalized.codePointAt(i);
+            if (isCjk(cp)) {
+                flushWord(word, tokens);
+                cjkRun.add(cp);
+            } else if (Character.isLetterOrDigit(cp)) {
+                flushCjk(cjkRun, tokens, forIndex);
+                word.appendCodePoint(cp);
+            } else {
+                flushWord(word, tokens);
+                flushCjk(cjkRun, tokens, forIndex);
+            }
+            i += Character.charCount(cp);
+        }
+        flushWord(word, tokens);
+        flushCjk(cjkRun, tokens, forIndex);
+        return tokens;
+    }
+
+    private static void flushWord(StringBuilder word, List<String> tokens) {
+        if (word.length() > 0) {
+            tokens.add(word.toString());
+            word.setLength(0);
+        }
+    }
+
+    private static void flushCjk(List<Integer> run, List<String> tokens, boolean forIndex) {
+        if (run.isEmpty()) {
+            return;
+        }
+        if (forIndex || run.size() == 1) {
+            for (int cp : run) {
+                tokens.add(new String(Character.toChars(cp)));
+            }
+        }
+        for (int j = 0; j + 1 < run.size(); j++) {
+            tokens.add(new StringBuilder().appendCodePoint(run.get(j)).appendCodePoint(run.get(j + 1)).toString());
+        }
+        run.clear();
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * 检索子句：一个词项及其适用字段
+     */
+    private record Clause(String term, Set<Field> fields, boolean prefix) {
+    }
+}
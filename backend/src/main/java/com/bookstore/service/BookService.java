@@ -4,6 +4,7 @@ import com.bookstore.entity.Book;
 import com.bookstore.exception.BusinessException;
 import com.bookstore.mapper.BookMapper;
 import com.bookstore.mapper.OrderItemMapper;
+import com.bookstore.util.PageCursor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
@@ -13,7 +14,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 @Service
 public class BookService {
@@ -24,11 +24,17 @@ public class BookService {
     @Autowired
     private OrderItemMapper orderItemMapper;
 
+    @Autowired
+    private BookCatalogCache bookCatalogCache;
+
+    @Autowired
+    private BookSearchIndex bookSearchIndex;
+
     /**
      * 获取所有图书
      */
     public List<Book> getAllBooks() {
-        return bookMapper.findAll();
+        return bookCatalogCache.getAll();
     }
 
     /**
@@ -52,69 +58,125 @@ public class BookService {
         result.put("page", page);
         result.put("size", size);
         result.put("pages", (int) Math.ceil((double) total / size));
+        result.put("nextCursor", nextCursor(books, size));
 
         return result;
     }
 
+    /**
+     * 游标分页获取所有图书，每页代价与翻页深度无关
+     * @param cursor 上一页返回的游标，为空时查询第一页
+     * @param size 每页数量
+     * @param withTotal 是否同时返回总数
+     * @return 包含分页数据和下一页游标的Map
+     */
+    public Map<String, Object> getBooksByCursor(String cursor, int size, boolean withTotal) {
+        PageCursor pageCursor = PageCursor.decode(cursor);
+        Long afterId = pageCursor != null ? pageCursor.getId() : null;
+
+        // 多取一条用于判断是否还有下一页
+        List<Book> books = bookMapper.findAllAfter(afterId, size + 1);
+        return buildCursorPage(books, size, withTotal ? bookMapper.count() : null);
+    }
+
     /**
      * 根据ID查找图书
      */
     public Book getBookById(Long id) {
-        return bookMapper.findById(id);
+        return bookCatalogCache.get(id);
     }
 
     /**
-     * 根据标题模糊查询
+     * 根据标题检索
      */
     public List<Book> searchBooksByTitle(String title) {
-        return bookMapper.findByTitleContaining(title);
+        return searchBooks(null, title, null);
     }
 
     /**
-     * 根据作者模糊查询
+     * 根据作者检索
      */
     public List<Book> searchBooksByAuthor(String author) {
-        return bookMapper.findByAuthorContaining(author);
+        return searchBooks(null, null, author);
     }
     
     /**
      * 根据标题和作者组合查询
      */
     public List<Book> searchBooksByTitleAndAuthor(String title, String author) {
-        // 同时提供标题和作者搜索条件
-        if (title != null && author != null) {
-            List<Book> titleResults = bookMapper.findByTitleContaining(title);
-            // 从标题结果中筛选出作者匹配的图书
-            return titleResults.stream()
-                .filter(book -> book.getAuthor().toLowerCase().contains(author.toLowerCase()))
-                .collect(Collectors.toList());
-        } 
-        // 只提供标题搜索条件
-        else if (title != null) {
-            return bookMapper.findByTitleContaining(title);
-        } 
-        // 只提供作者搜索条件
-        else if (author != null) {
-            return bookMapper.findByAuthorContaining(author);
-        } 
-        // 没有提供搜索条件，返回所有图书
-        else {
-            return bookMapper.findAll();
+        return searchBooks(null, title, author);
+    }
+
+    /**
+     * 全文检索图书，结果按相关度排序
+     * @param query 在标题、作者、分类、简介中检索的关键词（可选）
+     * @param title 标题关键词（可选）
+     * @param author 作者关键词（可选）
+     * @return 匹配的图书；没有提供检索条件时返回所有图书
+     */
+    public List<Book> searchBooks(String query, String title, String author) {
+        List<Long> bookIds = bookSearchIndex.search(query, title, author);
+        if (bookIds == null) {
+            return bookCatalogCache.getAll();
         }
+        return loadBooks(bookIds);
+    }
+
+    /**
+     * 分页全文检索图书，只加载当前页的图书
+     * @param query 在标题、作者、分类、简介中检索的关键词（可选）
+     * @param title 标题关键词（可选）
+     * @param author 作者关键词（可选）
+     * @param page 页码（从1开始）
+     * @param size 每页数量
+     * @return 包含分页数据和总数的Map
+     */
+    public Map<String, Object> searchBooksPaged(String query, String title, String author, int page, int size) {
+        List<Long> bookIds = bookSearchIndex.search(query, title, author);
+        if (bookIds == null) {
+            return getBooksPaged(page, size);
+        }
+
+        int total = bookIds.size();
+        int from = Math.min((page - 1) * size, total);
+        int to = Math.min(from + size, total);
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("books", loadBooks(bookIds.subList(from, to)));
+        result.put("total", total);
+        result.put("page", page);
+        result.put("size", size);
+        result.put("pages", (int) Math.ceil((double) total / size));
+
+        return result;
+    }
+
+    /**
+     * 按给定ID顺序从目录缓存中加载图书
+     */
+    private List<Book> loadBooks(List<Long> bookIds) {
+        List<Book> books = new ArrayList<>(bookIds.size());
+        for (Long bookId : bookIds) {
+            Book book = bookCatalogCache.get(bookId);
+            if (book != null) {
+                books.add(book);
+            }
+        }
+        return books;
     }
     
     /**
      * 获取所有图书分类
      */
     public List<String> getAllCategories() {
-        return bookMapper.findAllCategories();
+        return bookCatalogCache.getCategories();
     }
 
     /**
      * 根据分类查询
      */
     public List<Book> getBooksByCategory(String category) {
-        return bookMapper.findByCategory(category);
+        return bookCatalogCache.getByCategory(category);
     }
 
     /**
@@ -139,15 +201,62 @@ public class BookService {
         result.put("page", page);
         result.put("size", size);
         result.put("pages", (int) Math.ceil((double) total / size));
+        result.put("nextCursor", nextCursor(books, size));
 
         return result;
     }
 
+    /**
+     * 游标分页获取分类图书
+     * @param category 分类
+     * @param cursor 上一页返回的游标，为空时查询第一页
+     * @param size 每页数量
+     * @param withTotal 是否同时返回总数
+     * @return 包含分页数据和下一页游标的Map
+     */
+    public Map<String, Object> getBooksByCategoryByCursor(String category, String cursor, int size, boolean withTotal) {
+        PageCursor pageCursor = PageCursor.decode(cursor);
+        Long afterId = pageCursor != null ? pageCursor.getId() : null;
+
+        List<Book> books = bookMapper.findByCategoryAfter(category, afterId, size + 1);
+        return buildCursorPage(books, size, withTotal ? bookMapper.countByCategory(category) : null);
+    }
+
+    /**
+     * 构建游标分页结果，books 比 size 多一条时表示还有下一页
+     */
+    private Map<String, Object> buildCursorPage(List<Book> books, int size, Integer total) {
+        boolean hasMore = books.size() > size;
+        List<Book> pageBooks = hasMore ? books.subList(0, size) : books;
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("books", pageBooks);
+        result.put("size", size);
+        result.put("hasMore", hasMore);
+        result.put("nextCursor", hasMore ? PageCursor.of(pageBooks.get(size - 1).getId()).encode() : null);
+        if (total != null) {
+            result.put("total", total);
+        }
+        return result;
+    }
+
+    /**
+     * 计算偏移分页结果的下一页游标，便于客户端切换到游标分页
+     */
+    private String nextCursor(List<Book> books, int size) {
+        if (books.isEmpty() || books.size() < size) {
+            return null;
+        }
+        return PageCursor.of(books.get(books.size() - 1).getId()).encode();
+    }
+
     /**
      * 保存图书
      */
     public Book saveBook(Book book) {
         bookMapper.save(book);
+        bookCatalogCache.evict(book.getId());
+        bookSearchIndex.index(book);
         return book;
     }
 
@@ -156,6 +265,8 @@ public class BookService {
      */
     public Book updateBook(Book book) {
         bookMapper.update(book);
+        bookCatalogCache.evict(book.getId());
+        bookSearchIndex.index(book);
         return book;
     }
 
@@ -174,7 +285,10 @@ public class BookService {
         if (isBookReferenced(id)) {
             throw new BusinessException(HttpStatus.BAD_REQUEST.value(), "该图书已被订单引用，无法删除");
         }
-        return bookMapper.deleteById(id) > 0;
+        boolean deleted = bookMapper.deleteById(id) > 0;
+        bookCatalogCache.evict(id);
+        bookSearchIndex.remove(List.of(id));
+        return deleted;
     }
 
     /**
@@ -208,7 +322,10 @@ public class BookService {
 
         // 执行批量删除
         if (!safeToDeleteIds.isEmpty()) {
-            return bookMapper.batchDeleteByIds(safeToDeleteIds);
+            int deleted = bookMapper.batchDeleteByIds(safeToDeleteIds);
+            bookCatalogCache.evict(safeToDeleteIds);
+            bookSearchIndex.remove(safeToDeleteIds);
+            return deleted;
         }
 
         return 0;
@@ -2,15 +2,22 @@ package com.bookstore.service;
 
 import com.bookstore.entity.Book;
 import com.bookstore.entity.CartItem;
+import com.bookstore.entity.Order;
+import com.bookstore.entity.OrderItem;
 import com.bookstore.entity.User;
+import com.bookstore.exception.BusinessException;
 import com.bookstore.mapper.BookMapper;
 import com.bookstore.mapper.CartItemMapper;
 import com.bookstore.mapper.UserMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class CartService {
@@ -24,6 +31,9 @@ public class CartService {
     @Autowired
     private BookMapper bookMapper;
 
+    @Autowired
+    private OrderService orderService;
+
     /**
      * 获取用户的购物车
      */
@@ -120,4 +130,44 @@ public class CartService {
     public boolean clearCart(Long userId) {
         return cartItemMapper.deleteByUserId(userId) > 0;
     }
+
+    /**
+     * 结算购物车
+     * 购物车中的所有商品合并为一个订单，库存一次校验扣减，下单和清空购物车在同一个事务中完成
+     * @param userId 用户ID
+     * @param expectedItems 客户端显示的购物车内容（图书ID -> 数量），与服务端购物车不一致时拒绝结算；为 null 时不校验
+     * @return 创建的订单
+     */
+    @Transactional
+    public Order checkout(Long userId, Map<Long, Integer> expectedItems) {
+        // 锁定购物车项，校验之后到清空之前不会被其他请求修改
+        List<CartItem> cartItems = cartItemMapper.lockByUserId(userId);
+        if (cartItems.isEmpty()) {
+            throw new BusinessException(HttpStatus.BAD_REQUEST.value(), "购物车为空，无法结算");
+        }
+        if (expectedItems != null) {
+            Map<Long, Integer> actualItems = new HashMap<>();
+            for (CartItem cartItem : cartItems) {
+                actualItems.merge(cartItem.getBook().getId(), cartItem.getQuantity(), Integer::sum);
+            }
+            if (!actualItems.equals(expectedItems)) {
+                throw new BusinessException(HttpStatus.CONFLICT.value(), "购物车内容已变化，请确认后重新结算");
+            }
+        }
+
+        // 购物车查询已连接图书表，无需再逐本查询图书
+        List<OrderItem> orderItems = new ArrayList<>(cartItems.size());
+        for (CartItem cartItem : cartItems) {
+            OrderItem orderItem = new OrderItem();
+            orderItem.setBook(cartItem.getBook());
+            orderItem.setQuantity(cartItem.getQuantity());
+            orderItem.setPrice(cartItem.getBook().getPrice());
+            orderItems.add(orderItem);
+        }
+
+        Order order = orderService.createOrder(userId, orderItems);
+        // 只删除已结算的购物车项，结算期间新加入的商品保留在购物车中
+        cartItemMapper.deleteByIds(cartItems.stream().map(CartItem::getId).toList());
+        return order;
+    }
 }
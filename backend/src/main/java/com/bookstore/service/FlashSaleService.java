@@ -0,0 +1,503 @@
+package com.bookstore.service;
+
+import com.bookstore.entity.Book;
+import com.bookstore.entity.FlashSaleBook;
+import com.bookstore.exception.BusinessException;
+import com.bookstore.exception.InsufficientStockException;
+import com.bookstore.mapper.BookMapper;
+import com.bookstore.mapper.FlashSaleBookMapper;
+import com.bookstore.mapper.FlashSaleLeaseMapper;
+import com.bookstore.mapper.OrderItemMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 秒杀库存服务
+ *
+ * 被设为秒杀的图书，每个实例从 books.stock 中一次领取一批库存（租约），下单时在内存的原子计数器中扣减，
+ * 只有领取新的一批时才锁定图书行。领取由后台线程完成：剩余数量低于阈值时提前领取下一批，
+ * 不足时下单线程最多等待 refill-wait-ms，下单线程不在自己的事务中再占用一个连接，也不持有计数器的锁。books.stock 是所有实例共享的未领取库存，领取是带条件的扣减，
+ * 因此多个实例同时秒杀也不会超卖；各实例租约中尚未售出的数量记录在 flash_sale_lease 表中并定期更新。
+ * 超时未支付的订单取消时库存直接归还到 books.stock。
+ * 秒杀图书列表定期从数据库同步，在任一实例开启或关闭秒杀，其他实例在一个同步周期内跟随；
+ * 关闭秒杀或实例正常退出时归还未售出的租约。实例崩溃后其租约在心跳超时后被其他实例回收，
+ * 回收的数量取租约记录与按订单项推算（开启时库存 - 开启后仍存在的订单项数量 - 其他租约）中较小的值，宁可少卖不超卖。
+ * 租约领取后到售出或归还之前不计入 books.stock，图书列表显示的库存最多少于实际可售数量（实例数 × 每批数量）。
+ */
+@Service
+public class FlashSaleService {
+
+    private static final Logger logger = LoggerFactory.getLogger(FlashSaleService.class);
+
+    @Autowired
+    private FlashSaleBookMapper flashSaleBookMapper;
+
+    @Autowired
+    private FlashSaleLeaseMapper flashSaleLeaseMapper;
+
+    @Autowired
+    private BookMapper bookMapper;
+
+    @Autowired
+    private OrderItemMapper orderItemMapper;
+
+    @Autowired
+    private BookCatalogCache bookCatalogCache;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * 每次领取的秒杀库存数量
+     */
+    @Value("${app.flash-sale.lease-size:20}")
+    private int leaseSize;
+
+    /**
+     * 剩余数量低于该值时在后台领取下一批
+     */
+    @Value("${app.flash-sale.refill-threshold:10}")
+    private int refillThreshold;
+
+    /**
+     * 剩余数量不足时下单线程等待领取的最长时间，超时按库存不足处理
+     */
+    @Value("${app.flash-sale.refill-wait-ms:100}")
+    private long refillWaitMillis;
+
+    /**
+     * 租约心跳超时时间，超时的租约视为所属实例已退出
+     */
+    @Value("${app.flash-sale.lease-timeout-ms:30000}")
+    private long leaseTimeoutMillis;
+
+    /**
+     * 本实例的标识，每次启动不同，上一次运行遗留的租约按超时回收
+     */
+    private final String nodeId = UUID.randomUUID().toString();
+
+    /**
+     * 图书ID -> 库存计数器
+     */
+    private final Map<Long, Counter> counters = new ConcurrentHashMap<>();
+
+    /**
+     * 领取租约和归还库存的后台线程，数据库操作都在这里执行，不占用下单事务之外的连接
+     */
+    private final ExecutorService leaseExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "flash-sale-lease");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 应用启动后加载秒杀图书
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        sync();
+        if (!counters.isEmpty()) {
+            logger.info("加载秒杀图书完成，共{}本图书", counters.size());
+        }
+    }
+
+    /**
+     * 实例退出时归还所有未售出的租约
+     */
+    @PreDestroy
+    public synchronized void shutdown() {
+        leaseExecutor.shutdown();
+        try {
+            leaseExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Long bookId : new ArrayList<>(counters.keySet())) {
+            Counter counter = counters.remove(bookId);
+            try {
+                releaseLease(bookId, counter);
+            } catch (Exception e) {
+                logger.warn("归还图书{}的秒杀库存失败，将在租约超时后回收: {}", bookId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 图书是否处于秒杀中
+     */
+    public boolean isFlashSale(Long bookId) {
+        return counters.containsKey(bookId);
+    }
+
+    /**
+     * 在内存中预占秒杀图书的库存，全部成功或全部不预占；本实例的租约不足时等待后台领取一批
+     * 在事务中调用时，事务回滚后自动归还到本实例的租约
+     * @param quantities 图书ID -> 购买数量，只包含秒杀图书
+     * @return 库存不足的明细，全部成功时为空
+     */
+    public List<InsufficientStockException.Shortage> tryReserve(SortedMap<Long, Integer> quantities) {
+        Map<Long, Integer> reserved = new LinkedHashMap<>();
+        Map<Long, Counter> reservedCounters = new HashMap<>();
+        List<InsufficientStockException.Shortage> shortages = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : quantities.entrySet()) {
+            Counter counter = counters.get(entry.getKey());
+            if (counter != null && (counter.tryDecrement(entry.getValue())
+                    || awaitRefillAndDecrement(entry.getKey(), counter, entry.getValue()))) {
+                reserved.put(entry.getKey(), entry.getValue());
+                reservedCounters.put(entry.getKey(), counter);
+                if (counter.available.get() < refillThreshold) {
+                    requestRefill(entry.getKey(), counter, leaseSize);
+                }
+            } else {
+                Book book = bookCatalogCache.get(entry.getKey());
+                shortages.add(new InsufficientStockException.Shortage(entry.getKey(),
+                        book == null ? null : book.getTitle(),
+                        entry.getValue(),
+                        counter == null ? 0 : counter.available.get()));
+            }
+        }
+
+        if (!shortages.isEmpty()) {
+            reserved.forEach((bookId, quantity) -> release(bookId, reservedCounters.get(bookId), quantity));
+            return shortages;
+        }
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status != STATUS_COMMITTED) {
+                        reserved.forEach((bookId, quantity) ->
+                                release(bookId, reservedCounters.get(bookId), quantity));
+                    }
+                }
+            });
+        }
+        return shortages;
+    }
+
+    /**
+     * 等待后台领取一批库存后再次扣减，最多等待 refillWaitMillis
+     * 下单线程只等待，不访问数据库，也不持有计数器的锁
+     * @return 扣减是否成功
+     */
+    private boolean awaitRefillAndDecrement(Long bookId, Counter counter, int quantity) {
+        if (counter.released || counter.exhausted) {
+            return false;
+        }
+        try {
+            requestRefill(bookId, counter, Math.max(leaseSize, quantity)).get(refillWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+        return counter.tryDecrement(quantity);
+    }
+
+    /**
+     * 请求后台领取一批库存，同一图书同时只有一次领取在进行，后来的请求等待同一次领取
+     */
+    private CompletableFuture<Void> requestRefill(Long bookId, Counter counter, int wanted) {
+        synchronized (counter.refillLock) {
+            counter.wanted = Math.max(counter.wanted, wanted);
+            if (counter.refill == null) {
+                try {
+                    counter.refill = CompletableFuture.runAsync(() -> refill(bookId, counter), leaseExecutor);
+                } catch (RejectedExecutionException e) {
+                    // 实例正在退出
+                    return CompletableFuture.completedFuture(null);
+                }
+            }
+            return counter.refill;
+        }
+    }
+
+    /**
+     * 在后台线程中领取一批库存，领取在独立的事务中提交
+     */
+    private void refill(Long bookId, Counter counter) {
+        int wanted;
+        synchronized (counter.refillLock) {
+            wanted = counter.wanted;
+            counter.wanted = 0;
+            counter.refill = null;
+        }
+        if (counter.released || counter.exhausted) {
+            return;
+        }
+        try {
+            synchronized (counter) {
+                if (counter.released) {
+                    return;
+                }
+                Integer granted = new TransactionTemplate(transactionManager).execute(status ->
+                        flashSaleLeaseMapper.lease(bookId, nodeId, wanted));
+                if (granted == null || granted == 0) {
+                    // 未领取的库存已售完，下一个同步周期之前不再尝试
+                    counter.exhausted = true;
+                    return;
+                }
+                counter.increment(granted);
+            }
+            bookCatalogCache.evict(bookId);
+        } catch (Exception e) {
+            logger.error("领取图书{}的秒杀库存失败: {}", bookId, e.getMessage());
+        }
+    }
+
+    /**
+     * 归还未成交的预占：先归还到计数器，计数器的租约已归还时由后台线程把数量加回图书库存
+     * 在下单事务完成时调用，不访问数据库，也不持有计数器的锁
+     */
+    private void release(Long bookId, Counter counter, int quantity) {
+        counter.increment(quantity);
+        if (counter.released) {
+            // 租约归还时取走了 released 设置之前归还的数量，之后归还的数量在这里取走，两者不会重复
+            try {
+                leaseExecutor.execute(() -> returnToStock(bookId, counter.available.getAndSet(0)));
+            } catch (RejectedExecutionException e) {
+                // 实例正在退出，直接归还
+                returnToStock(bookId, counter.available.getAndSet(0));
+            }
+        }
+    }
+
+    /**
+     * 把已不属于任何租约的秒杀库存加回图书库存
+     */
+    private void returnToStock(Long bookId, int quantity) {
+        if (quantity <= 0) {
+            return;
+        }
+        try {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                Integer stock = bookMapper.lockStockById(bookId);
+                if (stock != null) {
+                    bookMapper.updateStocks(Map.of(bookId, stock + quantity));
+                }
+            });
+            bookCatalogCache.evict(bookId);
+        } catch (Exception e) {
+            logger.error("归还图书{}的秒杀库存{}失败: {}", bookId, quantity, e.getMessage());
+        }
+    }
+
+    /**
+     * 把有变化的计数器回写到本实例的租约，不修改 books.stock
+     */
+    @Scheduled(fixedDelayString = "${app.flash-sale.flush-interval-ms:200}")
+    public void flush() {
+        new TreeMap<>(counters).forEach((bookId, counter) -> {
+            if (!counter.dirty.getAndSet(false)) {
+                return;
+            }
+            synchronized (counter) {
+                if (counter.released) {
+                    return;
+                }
+                try {
+                    int available = counter.available.get();
+                    if (flashSaleLeaseMapper.updateQuantity(bookId, nodeId, available) == 0 && available > 0) {
+                        // 租约已被当作超时回收，其中的库存已归还到图书库存
+                        logger.warn("图书{}的秒杀租约已被回收，放弃本实例剩余的库存", bookId);
+                        counter.available.set(0);
+                    }
+                } catch (Exception e) {
+                    logger.error("回写图书{}的秒杀租约失败: {}", bookId, e.getMessage());
+                    counter.dirty.set(true);
+                }
+            }
+        });
+    }
+
+    /**
+     * 定期同步秒杀图书列表、更新租约心跳并回收已退出实例的租约
+     */
+    @Scheduled(fixedDelayString = "${app.flash-sale.sync-interval-ms:5000}",
+            initialDelayString = "${app.flash-sale.sync-interval-ms:5000}")
+    public synchronized void sync() {
+        try {
+            Set<Long> bookIds = new HashSet<>();
+            for (FlashSaleBook flashSaleBook : flashSaleBookMapper.findAll()) {
+                bookIds.add(flashSaleBook.getBookId());
+                // 取消的订单可能已把库存归还到图书库存，允许再次领取
+                counters.computeIfAbsent(flashSaleBook.getBookId(), bookId -> new Counter(0)).exhausted = false;
+            }
+            for (Long bookId : new ArrayList<>(counters.keySet())) {
+                if (!bookIds.contains(bookId)) {
+                    releaseLease(bookId, counters.remove(bookId));
+                }
+            }
+
+            flashSaleLeaseMapper.touch(nodeId);
+            for (Long bookId : flashSaleLeaseMapper.findStaleBookIds(leaseTimeoutMillis)) {
+                reclaim(bookId);
+            }
+        } catch (Exception e) {
+            logger.warn("同步秒杀图书失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 回收图书心跳超时的租约
+     */
+    private void reclaim(Long bookId) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        Integer reclaimed = transactionTemplate.execute(status -> {
+            Integer stock = bookMapper.lockStockById(bookId);
+            if (stock == null) {
+                return 0;
+            }
+            int staleQuantity = flashSaleLeaseMapper.deleteStale(bookId, leaseTimeoutMillis);
+            int restored = stock + staleQuantity;
+            FlashSaleBook flashSaleBook = flashSaleBookMapper.findByBookId(bookId);
+            if (flashSaleBook != null) {
+                // 租约记录可能尚未扣除最后一次回写之后的销量，与按订单项推算的结果取较小值
+                restored = Math.min(restored,
+                        availableOf(flashSaleBook) - flashSaleLeaseMapper.sumQuantity(bookId));
+            }
+            restored = Math.max(restored, stock);
+            bookMapper.updateStocks(Map.of(bookId, restored));
+            return restored - stock;
+        });
+        bookCatalogCache.evict(bookId);
+        logger.info("回收图书{}超时的秒杀租约，归还库存{}", bookId, reclaimed);
+    }
+
+    /**
+     * 归还本实例的租约，此后计数器不再使用
+     */
+    private void releaseLease(Long bookId, Counter counter) {
+        synchronized (counter) {
+            counter.released = true;
+            int available = counter.available.getAndSet(0);
+            flashSaleLeaseMapper.release(bookId, nodeId, available);
+        }
+        bookCatalogCache.evict(bookId);
+    }
+
+    /**
+     * 开启图书秒杀，其他实例在下一个同步周期开始秒杀
+     */
+    public synchronized Map<String, Object> enable(Long bookId) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        Integer stock = transactionTemplate.execute(status -> {
+            // 锁定图书行，等待正在进行的普通下单提交后再记录起始位置
+            Integer current = bookMapper.lockStockById(bookId);
+            if (current == null) {
+                throw new BusinessException(HttpStatus.BAD_REQUEST.value(), "图书不存在");
+            }
+            if (flashSaleBookMapper.findByBookId(bookId) != null) {
+                throw new BusinessException(HttpStatus.BAD_REQUEST.value(), "该图书已在秒杀中");
+            }
+            FlashSaleBook flashSaleBook = new FlashSaleBook();
+            flashSaleBook.setBookId(bookId);
+            flashSaleBook.setInitialStock(current);
+            flashSaleBook.setStartItemId(orderItemMapper.findMaxId());
+            flashSaleBookMapper.save(flashSaleBook);
+            return current;
+        });
+
+        counters.computeIfAbsent(bookId, key -> new Counter(0));
+        logger.info("图书{}开启秒杀，库存{}", bookId, stock);
+        return toMap(bookId, stock);
+    }
+
+    /**
+     * 关闭图书秒杀并归还本实例的租约，其他实例在下一个同步周期归还各自的租约
+     */
+    public synchronized void disable(Long bookId) {
+        if (flashSaleBookMapper.findByBookId(bookId) == null) {
+            throw new BusinessException(HttpStatus.BAD_REQUEST.value(), "该图书不在秒杀中");
+        }
+        flashSaleBookMapper.deleteByBookId(bookId);
+        Counter counter = counters.remove(bookId);
+        if (counter != null) {
+            releaseLease(bookId, counter);
+        }
+        logger.info("图书{}关闭秒杀", bookId);
+    }
+
+    /**
+     * 获取所有秒杀图书及其剩余库存（未领取的库存加上各实例租约中尚未售出的数量）
+     */
+    public List<Map<String, Object>> getFlashSaleBooks() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Map<String, Object> row : flashSaleLeaseMapper.findAvailable()) {
+            result.add(toMap(((Number) row.get("book_id")).longValue(), ((Number) row.get("stock")).intValue()));
+        }
+        return result;
+    }
+
+    private static Map<String, Object> toMap(Long bookId, int stock) {
+        Map<String, Object> item = new HashMap<>();
+        item.put("bookId", bookId);
+        item.put("stock", stock);
+        return item;
+    }
+
+    private static int availableOf(FlashSaleBook flashSaleBook) {
+        return Math.max(flashSaleBook.getInitialStock() - flashSaleBook.getSoldQuantity(), 0);
+    }
+
+    /**
+     * 单本图书的库存计数器，available 为本实例租约中尚未售出的数量
+     * 计数器的锁只由后台线程持有（领取、回写和归还租约），下单线程只使用原子操作
+     */
+    private static final class Counter {
+        private final AtomicInteger available;
+        private final AtomicBoolean dirty = new AtomicBoolean(true);
+        private volatile boolean released;
+        private volatile boolean exhausted;
+        private final Object refillLock = new Object();
+        private CompletableFuture<Void> refill;
+        private int wanted;
+
+        private Counter(int available) {
+            this.available = new AtomicInteger(available);
+        }
+
+        private boolean tryDecrement(int quantity) {
+            int current;
+            do {
+                current = available.get();
+                if (current < quantity) {
+                    return false;
+                }
+            } while (!available.compareAndSet(current, current - quantity));
+            dirty.set(true);
+            return true;
+        }
+
+        private void increment(int quantity) {
+            available.addAndGet(quantity);
+            dirty.set(true);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.bookstore.service;
+
+import com.bookstore.common.ApiResponse;
+import com.bookstore.entity.IdempotencyRecord;
+import com.bookstore.exception.OutcomeUnknownException;
+import com.bookstore.mapper.IdempotencyRecordMapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * 请求幂等服务
+ *
+ * 客户端在支付、下单等请求中携带 Idempotency-Key 请求头，同一个键的重复请求直接返回第一次的响应，
+ * 不会再次执行业务逻辑。已完成的结果保存在有界的内存缓存中，缓存之后是 idempotency_record 表，
+ * 重启或多实例部署时仍然有效。处理中的键再次提交会返回 409，执行失败（抛出异常或 5xx）时释放键以便重试；
+ * 等待结果超时（{@link OutcomeUnknownException}）时业务仍可能提交，键保持处理中，业务最终失败时才释放。
+ * 业务执行后结果在单独的语句中保存，处理中的记录无论多久都不会被重新占用：保存结果失败、处理进程退出
+ * 或请求长时间排队时，业务可能已经提交，重新执行会重复扣款或下单。这类记录一直返回 409，
+ * 由定期清理报告数量，人工确认业务结果后删除记录（idempotency_record 表）即可重试。
+ */
+@Service
+public class IdempotencyService {
+
+    private static final Logger logger = LoggerFactory.getLogger(IdempotencyService.class);
+
+    public static final String HEADER = "Idempotency-Key";
+
+    private static final int MAX_KEY_LENGTH = 100;
+
+    /**
+     * 内存中缓存的已完成记录数上限
+     */
+    @Value("${app.idempotency.max-entries:10000}")
+    private int maxEntries;
+
+    /**
+     * 处理中的记录超过该时间仍未完成，视为结果未知，需要人工确认
+     */
+    @Value("${app.idempotency.processing-timeout-seconds:60}")
+    private long processingTimeoutSeconds;
+
+    /**
+     * 幂等记录的保留时间
+     */
+    @Value("${app.idempotency.ttl-hours:24}")
+    private long ttlHours;
+
+    @Autowired
+    private IdempotencyRecordMapper idempotencyRecordMapper;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * 已完成的记录，按访问顺序淘汰
+     */
+    private final Map<String, IdempotencyRecord> completed = Collections.synchronizedMap(
+            new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, IdempotencyRecord> eldest) {
+                    return size() > maxEntries;
+                }
+            });
+
+    /**
+     * 以幂等方式执行请求
+     * @param idempotencyKey 客户端提供的幂等键，为空时直接执行
+     * @param scope 接口范围，通常包含用户ID
+     * @param request 请求体，用于识别同一个键被用于不同的请求
+     * @param action 实际的请求处理
+     * @return 本次或第一次执行的响应
+     */
+    public ResponseEntity<?> execute(String idempotencyKey, String scope, Object request,
+                                     Supplier<ResponseEntity<?>> action) {
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return action.get();
+        }
+        if (idempotencyKey.length() > MAX_KEY_LENGTH) {
+            return error(HttpStatus.BAD_REQUEST, "幂等键长度不能超过" + MAX_KEY_LENGTH);
+        }
+
+        String requestHash = hash(request);
+        String cacheKey = scope + '\n' + idempotencyKey;
+        IdempotencyRecord cached = completed.get(cacheKey);
+        if (cached != null) {
+            return replay(cached, requestHash);
+        }
+
+        IdempotencyRecord record = new IdempotencyRecord();
+        record.setScope(scope);
+        record.setIdempotencyKey(idempotencyKey);
+        record.setRequestHash(requestHash);
+        record.setCreateTime(new Date());
+        if (idempotencyRecordMapper.claim(record) == 0) {
+            IdempotencyRecord existing = idempotencyRecordMapper.find(scope, idempotencyKey);
+            if (existing != null && "COMPLETED".equals(existing.getStatus())) {
+                completed.put(cacheKey, existing);
+                return replay(existing, requestHash);
+            }
+            if (existing != null && System.currentTimeMillis() - existing.getCreateTime().getTime()
+                    > processingTimeoutSeconds * 1000) {
+                return error(HttpStatus.CONFLICT, "相同请求的处理结果未知，请联系管理员确认");
+            }
+            return error(HttpStatus.CONFLICT, "相同的请求正在处理中，请稍后重试");
+        }
+
+        ResponseEntity<?> response;
+        try {
+            response = action.get();
+        } catch (OutcomeUnknownException e) {
+            // 业务仍可能提交，不能释放键；确认失败后才允许重试，成功时记录保持处理中，需要人工确认
+            e.getOutcome().whenComplete((result, failure) -> {
+                if (failure != null) {
+                    release(scope, idempotencyKey);
+                }
+            });
+            throw e;
+        } catch (RuntimeException | Error e) {
+            release(scope, idempotencyKey);
+            throw e;
+        }
+        if (response.getStatusCode().is5xxServerError()) {
+            release(scope, idempotencyKey);
+            return response;
+        }
+
+        try {
+            record.setStatus("COMPLETED");
+            record.setResponseStatus(response.getStatusCode().value());
+            record.setResponseBody(objectMapper.writeValueAsString(response.getBody()));
+            idempotencyRecordMapper.complete(record);
+            completed.put(cacheKey, record);
+        } catch (Exception e) {
+            // 请求已经执行成功，保存结果失败不影响本次响应；记录保持处理中，重复请求返回409直到人工确认
+            logger.error("保存幂等记录失败，需要人工确认 {}: {}", cacheKey, e.getMessage());
+        }
+        return response;
+    }
+
+    /**
+     * 定期删除过期的已完成幂等记录，并报告结果未知、需要人工确认的处理中记录
+     */
+    @Scheduled(fixedDelayString = "${app.idempotency.cleanup-interval-ms:3600000}")
+    public void cleanup() {
+        LocalDateTime before = LocalDateTime.now().minusHours(ttlHours);
+        int deleted = idempotencyRecordMapper.deleteCompletedBefore(before);
+        int unresolved = idempotencyRecordMapper.countProcessingBefore(
+                LocalDateTime.now().minusSeconds(processingTimeoutSeconds));
+        if (unresolved > 0) {
+            logger.warn("有{}条幂等记录长时间处于处理中，请确认业务结果后删除", unresolved);
+        }
+        Date expiredBefore = Date.from(before.atZone(ZoneId.systemDefault()).toInstant());
+        synchronized (completed) {
+            completed.values().removeIf(record -> record.getCreateTime().before(expiredBefore));
+        }
+        if (deleted > 0) {
+            logger.info("删除过期幂等记录{}条", deleted);
+        }
+    }
+
+    private ResponseEntity<?> replay(IdempotencyRecord record, String requestHash) {
+        if (!record.getRequestHash().equals(requestHash)) {
+            return error(HttpStatus.UNPROCESSABLE_ENTITY, "幂等键已用于不同的请求");
+        }
+        return ResponseEntity.status(record.getResponseStatus())
+                .contentType(MediaType.APPLICATION_JSON)
+                .header("Idempotent-Replayed", "true")
+                .body(record.getResponseBody());
+    }
+
+    private void release(String scope, String idempotencyKey) {
+        try {
+            idempotencyRecordMapper.delete(scope, idempotencyKey);
+        } catch (Exception e) {
+            logger.error("释放幂等键失败 {}:{}: {}", scope, idempotencyKey, e.getMessage());
+        }
+    }
+
+    private String hash(Object request) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(objectMapper.writeValueAsString(request).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("计算请求摘要失败", e);
+        }
+    }
+
+    private static ResponseEntity<?> error(HttpStatus status, String message) {
+        return ResponseEntity.status(status).body(ApiResponse.error(status.value(), message));
+    }
+}
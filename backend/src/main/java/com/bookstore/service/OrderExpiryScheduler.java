@@ -0,0 +1,228 @@
+package com.bookstore.service;
+
+import com.bookstore.entity.Order;
+import com.bookstore.mapper.BookMapper;
+import com.bookstore.mapper.OrderItemMapper;
+import com.bookstore.mapper.OrderMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 待支付订单过期调度
+ *
+ * 只在内存中跟踪待支付订单，按到期时间排列在延迟队列里：启动时通过部分索引加载现有待支付订单，
+ * 新订单在事务提交后入队。到期的订单分批处理，先锁定仍待支付的订单，
+ * 再用一条汇总语句归还库存并批量删除订单项和订单。
+ * 另有低频的兜底扫描，处理其他实例创建或入队失败的订单，同样只走索引。
+ */
+@Component
+public class OrderExpiryScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderExpiryScheduler.class);
+
+    /**
+     * 每个事务处理的订单数上限
+     */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * 处理失败后重新入队的延迟
+     */
+    private static final long RETRY_DELAY_MILLIS = 30_000;
+
+    /**
+     * 待支付订单的超时时间（分钟）
+     */
+    @Value("${app.order.expiry.timeout-minutes:5}")
+    private long timeoutMinutes;
+
+    @Autowired
+    private OrderMapper orderMapper;
+
+    @Autowired
+    private OrderItemMapper orderItemMapper;
+
+    @Autowired
+    private BookMapper bookMapper;
+
+    @Autowired
+    private BookCatalogCache bookCatalogCache;
+
+    @Autowired
+    private SalesRollupService salesRollupService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final DelayQueue<PendingOrder> queue = new DelayQueue<>();
+
+    /**
+     * 已入队的订单ID，防止重复入队
+     */
+    private final Set<Long> queued = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 应用启动后加载所有待支付订单
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            List<Order> pending = orderMapper.findPendingDeadlines();
+            for (Order order : pending) {
+                enqueue(order.getId(), deadlineOf(order.getOrderDate()));
+            }
+            logger.info("订单过期队列初始化完成，共{}个待支付订单", pending.size());
+        } catch (Exception e) {
+            // 启动时数据库不可用不影响启动，由兜底扫描处理
+            logger.warn("初始化订单过期队列失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 登记新的待支付订单，在事务中调用时于提交后入队
+     */
+    public void register(Long orderId, LocalDateTime orderDate) {
+        if (orderId == null || orderDate == null) {
+            return;
+        }
+        long deadline = deadlineOf(orderDate);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(orderId, deadline);
+                }
+            });
+        } else {
+            enqueue(orderId, deadline);
+        }
+    }
+
+    /**
+     * 处理已到期的订单，只取出队列中到期的项，不扫描订单表
+     * @return 被取消的订单数量
+     */
+    @Scheduled(fixedDelayString = "${app.order.expiry.poll-interval-ms:1000}")
+    public int expireDue() {
+        List<PendingOrder> due = new ArrayList<>();
+        queue.drainTo(due);
+        if (due.isEmpty()) {
+            return 0;
+        }
+
+        List<Long> orderIds = new ArrayList<>(due.size());
+        for (PendingOrder pendingOrder : due) {
+            queued.remove(pendingOrder.orderId);
+            orderIds.add(pendingOrder.orderId);
+        }
+        return expire(orderIds);
+    }
+
+    /**
+     * 兜底扫描：通过待支付部分索引查找已超时但不在队列中的订单
+     */
+    @Scheduled(fixedDelayString = "${app.order.expiry.resync-interval-ms:600000}",
+            initialDelayString = "${app.order.expiry.resync-interval-ms:600000}")
+    public void resync() {
+        int expired;
+        List<Long> orderIds;
+        do {
+            orderIds = orderMapper.findPendingIdsBefore(cutoff(), BATCH_SIZE);
+            expired = expire(orderIds);
+        } while (orderIds.size() == BATCH_SIZE && expired > 0);
+    }
+
+    /**
+     * 分批取消超时订单并归还库存
+     */
+    private int expire(List<Long> orderIds) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        int expired = 0;
+        for (int from = 0; from < orderIds.size(); from += BATCH_SIZE) {
+            List<Long> batch = orderIds.subList(from, Math.min(from + BATCH_SIZE, orderIds.size()));
+            try {
+                Integer count = transactionTemplate.execute(status -> expireBatch(batch));
+                expired += count == null ? 0 : count;
+            } catch (Exception e) {
+                logger.error("取消超时订单失败，{}个订单稍后重试: {}", batch.size(), e.getMessage());
+                long retryAt = System.currentTimeMillis() + RETRY_DELAY_MILLIS;
+                batch.forEach(orderId -> enqueue(orderId, retryAt));
+            }
+        }
+        if (expired > 0) {
+            logger.info("自动取消超时订单{}个", expired);
+        }
+        return expired;
+    }
+
+    private int expireBatch(List<Long> orderIds) {
+        // 已支付或已被其他实例处理的订单不会被锁定
+        List<Long> locked = orderMapper.lockPendingBefore(orderIds, cutoff());
+        if (locked.isEmpty()) {
+            return 0;
+        }
+        salesRollupService.beforeChange(locked);
+        List<Long> bookIds = bookMapper.restockByOrderIds(locked);
+        orderItemMapper.deleteByOrderIds(locked);
+        orderMapper.deleteByIds(locked);
+        bookCatalogCache.evict(bookIds);
+        return locked.size();
+    }
+
+    private void enqueue(Long orderId, long deadline) {
+        if (queued.add(orderId)) {
+            queue.put(new PendingOrder(orderId, deadline));
+        }
+    }
+
+    private LocalDateTime cutoff() {
+        return LocalDateTime.now().minusMinutes(timeoutMinutes);
+    }
+
+    private long deadlineOf(LocalDateTime orderDate) {
+        return orderDate.plusMinutes(timeoutMinutes).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 延迟队列中的待支付订单
+     */
+    private static final class PendingOrder implements Delayed {
+        private final Long orderId;
+        private final long deadline;
+
+        private PendingOrder(Long orderId, long deadline) {
+            this.orderId = orderId;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(deadline, ((PendingOrder) other).deadline);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.bookstore.service;
+
+import com.bookstore.entity.Order;
+import com.bookstore.entity.OrderItem;
+import com.bookstore.mapper.OrderItemMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * 订单项批量加载器
+ *
+ * 订单列表查询只取订单本身，再按 order_id IN (...) 分批一次取回这些订单的全部订单项并按订单归组，
+ * 加载 N 个订单只需 1 + ceil(N / BATCH_SIZE) 次查询，而不是每个订单各查一次。
+ */
+@Component
+public class OrderItemLoader {
+
+    /**
+     * 每条 IN 查询包含的订单ID上限
+     */
+    private static final int BATCH_SIZE = 500;
+
+    @Autowired
+    private OrderItemMapper orderItemMapper;
+
+    /**
+     * 为订单列表填充订单项
+     * @param orders 订单列表（可为空）
+     * @return 传入的订单列表
+     */
+    public List<Order> attachItems(List<Order> orders) {
+        if (orders == null || orders.isEmpty()) {
+            return orders;
+        }
+
+        Map<Long, Order> byId = new LinkedHashMap<>();
+        for (Order order : orders) {
+            order.setOrderItems(new ArrayList<>());
+            byId.put(order.getId(), order);
+        }
+
+        List<Long> orderIds = new ArrayList<>(byId.keySet());
+        for (int from = 0; from < orderIds.size(); from += BATCH_SIZE) {
+            List<Long> batch = orderIds.subList(from, Math.min(from + BATCH_SIZE, orderIds.size()));
+            for (OrderItem item : orderItemMapper.findByOrderIds(batch)) {
+                Order order = byId.get(item.getOrder().getId());
+                if (order != null) {
+                    item.setOrder(order);
+                    order.getOrderItems().add(item);
+                }
+            }
+        }
+        return orders;
+    }
+}
@@ -0,0 +1,12 @@
+package com.bookstore.service;
+
+/**
+ * 订单号生成器
+ */
+public interface OrderNumberGenerator {
+
+    /**
+     * 生成新的订单号，多线程、多实例下保证唯一
+     */
+    String nextOrderNumber();
+}
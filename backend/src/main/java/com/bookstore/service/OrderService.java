@@ -5,14 +5,17 @@ import com.bookstore.entity.Book;
 import com.bookstore.entity.Order;
 import com.bookstore.entity.OrderItem;
 import com.bookstore.entity.User;
+import com.bookstore.exception.BusinessException;
 import com.bookstore.mapper.BookMapper;
 import com.bookstore.mapper.OrderItemMapper;
 import com.bookstore.mapper.OrderMapper;
 import com.bookstore.mapper.UserMapper;
+import com.bookstore.util.PageCursor;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -20,8 +23,10 @@ import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Service
 public class OrderService {
@@ -38,11 +43,26 @@ public class OrderService {
     @Autowired
     private BookMapper bookMapper;
 
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    @Autowired
+    private OrderItemLoader orderItemLoader;
+
+    @Autowired
+    private OrderExpiryScheduler orderExpiryScheduler;
+
+    @Autowired
+    private OrderNumberGenerator orderNumberGenerator;
+
+    @Autowired
+    private SalesRollupService salesRollupService;
+
     /**
      * 获取所有订单
      */
     public List<Order> getAllOrders() {
-        return orderMapper.findAll();
+        return orderItemLoader.attachItems(orderMapper.findAll());
     }
 
     /**
@@ -56,7 +76,7 @@ public class OrderService {
         int offset = (page - 1) * size;
 
         // 查询数据
-        List<Order> orders = orderMapper.findAllPaged(offset, size);
+        List<Order> orders = orderItemLoader.attachItems(orderMapper.findAllPaged(offset, size));
         int total = orderMapper.count();
 
         // 构建返回结果
@@ -66,15 +86,35 @@ public class OrderService {
         result.put("page", page);
         result.put("size", size);
         result.put("pages", (int) Math.ceil((double) total / size));
+        result.put("nextCursor", nextCursor(orders, size));
 
         return result;
     }
 
+    /**
+     * 游标分页获取所有订单（按下单时间降序），每页代价与翻页深度无关
+     * @param cursor 上一页返回的游标，为空时查询第一页
+     * @param size 每页数量
+     * @param withTotal 是否同时返回总数
+     * @return 包含分页数据和下一页游标的Map
+     */
+    public Map<String, Object> getOrdersByCursor(String cursor, int size, boolean withTotal) {
+        // 多取一条用于判断是否还有下一页
+        List<Order> orders = orderItemLoader.attachItems(
+            orderMapper.findAllBefore(decodeOrderCursor(cursor), size + 1));
+        return buildCursorPage(orders, size, withTotal ? orderMapper.count() : null);
+    }
+
     /**
      * 获取订单详情
      */
     public Order getOrderById(Long orderId) {
-        return orderMapper.findById(orderId);
+        Order order = orderMapper.findById(orderId);
+        // 连接查询在订单没有订单项时不会创建集合
+        if (order != null && order.getOrderItems() == null) {
+            order.setOrderItems(new ArrayList<>());
+        }
+        return order;
     }
 
     /**
@@ -83,7 +123,7 @@ public class OrderService {
     public List<Order> getUserOrders(Long userId) {
         User user = userMapper.findById(userId);
         if (user != null) {
-            return orderMapper.findByUserIdOrderByOrderDateDesc(userId);
+            return orderItemLoader.attachItems(orderMapper.findByUserIdOrderByOrderDateDesc(userId));
         }
         return new ArrayList<>();
     }
@@ -118,7 +158,7 @@ public class OrderService {
         int offset = (page - 1) * size;
 
         // 查询数据
-        List<Order> orders = orderMapper.findByUserIdPaged(userId, offset, size);
+        List<Order> orders = orderItemLoader.attachItems(orderMapper.findByUserIdPaged(userId, offset, size));
         int total = orderMapper.countByUserId(userId);
 
         // 构建返回结果
@@ -128,12 +168,87 @@ public class OrderService {
         result.put("page", page);
         result.put("size", size);
         result.put("pages", (int) Math.ceil((double) total / size));
+        result.put("nextCursor", nextCursor(orders, size));
 
         return result;
     }
 
+    /**
+     * 游标分页获取用户订单（按下单时间降序）
+     * @param userId 用户ID
+     * @param cursor 上一页返回的游标，为空时查询第一页
+     * @param size 每页数量
+     * @param withTotal 是否同时返回总数
+     * @return 包含分页数据和下一页游标的Map
+     */
+    public Map<String, Object> getUserOrdersByCursor(Long userId, String cursor, int size, boolean withTotal) {
+        List<Order> orders = orderItemLoader.attachItems(
+            orderMapper.findByUserIdBefore(userId, decodeOrderCursor(cursor), size + 1));
+        return buildCursorPage(orders, size, withTotal ? orderMapper.countByUserId(userId) : null);
+    }
+
+    /**
+     * 游标分页获取用户订单并转换为DTO
+     */
+    public Map<String, Object> getUserOrdersByCursorWithDTO(Long userId, String cursor, int size, boolean withTotal) {
+        Map<String, Object> response = getUserOrdersByCursor(userId, cursor, size, withTotal);
+
+        @SuppressWarnings("unchecked")
+        List<Order> orders = (List<Order>) response.get("orders");
+        response.put("orders", orders.stream()
+            .map(OrderDTO::new)
+            .collect(Collectors.toList()));
+
+        return response;
+    }
+
+    /**
+     * 解析订单游标，订单按下单时间和ID排序，游标必须包含时间
+     */
+    private PageCursor decodeOrderCursor(String cursor) {
+        PageCursor pageCursor = PageCursor.decode(cursor);
+        if (pageCursor != null && pageCursor.getTime() == null) {
+            throw new BusinessException(HttpStatus.BAD_REQUEST.value(), "无效的分页游标");
+        }
+        return pageCursor;
+    }
+
+    /**
+     * 构建游标分页结果，orders 比 size 多一条时表示还有下一页
+     */
+    private Map<String, Object> buildCursorPage(List<Order> orders, int size, Integer total) {
+        boolean hasMore = orders.size() > size;
+        List<Order> pageOrders = hasMore ? orders.subList(0, size) : orders;
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("orders", pageOrders);
+        result.put("size", size);
+        result.put("hasMore", hasMore);
+        result.put("nextCursor", hasMore ? orderCursor(pageOrders.get(size - 1)) : null);
+        if (total != null) {
+            result.put("total", total);
+        }
+        return result;
+    }
+
+    /**
+     * 计算偏移分页结果的下一页游标，便于客户端切换到游标分页
+     */
+    private String nextCursor(List<Order> orders, int size) {
+        if (orders.isEmpty() || orders.size() < size) {
+            return null;
+        }
+        return orderCursor(orders.get(orders.size() - 1));
+    }
+
+    private String orderCursor(Order order) {
+        return PageCursor.of(order.getOrderDate(), order.getId()).encode();
+    }
+
     /**
      * 创建新订单
+     * 整单库存一次扣减，订单项一条语句批量插入，返回值直接由内存中的数据组装，不再回查
+     * @param items 订单项，book 需包含ID和标题等信息
      */
     @Transactional
     public Order createOrder(Long userId, List<OrderItem> items) {
@@ -142,16 +257,12 @@ public class OrderService {
             throw new RuntimeException("用户不存在");
         }
 
-        // 检查库存并减少库存
+        // 一条条件更新扣减整单库存，库存不足时抛出带明细的异常并回滚
+        Map<Long, Integer> quantities = new HashMap<>();
         for (OrderItem item : items) {
-            Book book = item.getBook();
-            if (book.getStock() < item.getQuantity()) {
-                throw new RuntimeException("库存不足：" + book.getTitle());
-            }
-            // 减少库存
-            book.setStock(book.getStock() - item.getQuantity());
-            bookMapper.update(book);
+            quantities.merge(item.getBook().getId(), item.getQuantity(), Integer::sum);
         }
+        stockReservationService.reserve(quantities);
 
         // 创建订单
         Order order = new Order();
@@ -160,7 +271,7 @@ public class OrderService {
         order.setStatus(0); // 待支付状态
 
         // 生成订单号
-        String orderNumber = generateOrderNumber();
+        String orderNumber = orderNumberGenerator.nextOrderNumber();
         order.setOrderNumber(orderNumber);
 
         // 计算订单总金额
@@ -172,15 +283,17 @@ public class OrderService {
 
         // 保存订单
         orderMapper.save(order);
+        orderExpiryScheduler.register(order.getId(), order.getOrderDate());
 
-        // 保存订单项
+        // 批量保存订单项
         for (OrderItem item : items) {
             item.setOrder(order);
-            orderItemMapper.save(item);
         }
+        orderItemMapper.batchSave(items);
+        salesRollupService.afterChange(List.of(order.getId()));
 
-        // 重新获取订单（包含订单项）
-        return orderMapper.findById(order.getId());
+        order.setOrderItems(new ArrayList<>(items));
+        return order;
     }
 
     /**
@@ -188,54 +301,18 @@ public class OrderService {
      */
     @Transactional
     public Order createOrderFromBook(Long userId, Long bookId, Integer quantity) {
-        User user = userMapper.findById(userId);
         Book book = bookMapper.findById(bookId);
-
-        if (user == null) {
-            throw new RuntimeException("用户不存在");
-        }
-
         if (book == null) {
             throw new RuntimeException("图书不存在");
         }
 
-        // 检查库存并减少库存
-        if (book.getStock() < quantity) {
-            throw new RuntimeException("库存不足：" + book.getTitle());
-        }
-        // 减少库存
-        book.setStock(book.getStock() - quantity);
-        bookMapper.update(book);
-
-        // 创建订单
-        Order order = new Order();
-        order.setUser(user);
-        order.setOrderDate(LocalDateTime.now());
-        order.setStatus(0); // 待支付状态
-
-        // 生成订单号
-        String orderNumber = generateOrderNumber();
-        order.setOrderNumber(orderNumber);
-
-        // 计算订单总金额
-        BigDecimal totalAmount = book.getPrice().multiply(new BigDecimal(quantity));
-        order.setTotalAmount(totalAmount);
-
-        // 保存订单
-        orderMapper.save(order);
-
         // 创建订单项
         OrderItem orderItem = new OrderItem();
-        orderItem.setOrder(order);
         orderItem.setBook(book);
         orderItem.setQuantity(quantity);
         orderItem.setPrice(book.getPrice());
 
-        // 保存订单项
-        orderItemMapper.save(orderItem);
-
-        // 重新获取订单（包含订单项）
-        return orderMapper.findById(order.getId());
+        return createOrder(userId, List.of(orderItem));
     }
 
     /**
@@ -248,8 +325,10 @@ public class OrderService {
             throw new RuntimeException("订单不存在");
         }
 
+        salesRollupService.beforeChange(List.of(orderId));
         order.setStatus(status);
         orderMapper.update(order);
+        salesRollupService.afterChange(List.of(orderId));
 
         return orderMapper.findById(orderId);
     }
@@ -272,6 +351,8 @@ public class OrderService {
             throw new RuntimeException("订单不存在");
         }
 
+        salesRollupService.beforeChange(List.of(orderId));
+
         // 先删除订单项
         orderItemMapper.deleteByOrderId(orderId);
 
@@ -289,6 +370,7 @@ public class OrderService {
         }
 
         int deletedCount = 0;
+        salesRollupService.beforeChange(orderIds);
 
         for (Long orderId : orderIds) {
             try {
@@ -316,6 +398,7 @@ public class OrderService {
     public int batchCancelOrders(List<Long> orderIds) {
         // 复用批量删除的逻辑，但不真正删除记录，而是修改状态
         int cancelledCount = 0;
+        salesRollupService.beforeChange(orderIds);
         
         for (Long orderId : orderIds) {
             Order order = orderMapper.findById(orderId);
@@ -326,12 +409,13 @@ public class OrderService {
                 cancelledCount++;
             }
         }
+        salesRollupService.afterChange(orderIds);
         return cancelledCount;
     }
 
     // 获取用户订单列表并转换为DTO
     public List<OrderDTO> getUserOrdersWithDTO(Long userId) {
-        List<Order> orders = orderMapper.findByUserIdOrderByOrderDateDesc(userId);
+        List<Order> orders = orderItemLoader.attachItems(orderMapper.findByUserIdOrderByOrderDateDesc(userId));
         return orders.stream()
             .map(OrderDTO::new)
             .collect(Collectors.toList());
@@ -354,26 +438,37 @@ public class OrderService {
     public Order createOrderFromPayload(Map<String, Object> payload) {
         Long userId = Long.valueOf(payload.get("userId").toString());
         List<OrderItem> orderItems = new ArrayList<>();
-        
+
         // 解析订单项
         List<Map<String, Object>> items = (List<Map<String, Object>>) payload.get("items");
         for (Map<String, Object> item : items) {
             OrderItem orderItem = new OrderItem();
-            Long bookId = Long.valueOf(item.get("bookId").toString());
-            Integer quantity = Integer.valueOf(item.get("quantity").toString());
-            
-            // 查询书籍信息
-            Book book = bookMapper.findById(bookId);
+            orderItem.setBook(new Book());
+            orderItem.getBook().setId(Long.valueOf(item.get("bookId").toString()));
+            orderItem.setQuantity(Integer.valueOf(item.get("quantity").toString()));
+            orderItems.add(orderItem);
+        }
+
+        // 一次查询所有书籍信息
+        Set<Long> bookIds = new HashSet<>();
+        for (OrderItem orderItem : orderItems) {
+            bookIds.add(orderItem.getBook().getId());
+        }
+        Map<Long, Book> books = new HashMap<>();
+        if (!bookIds.isEmpty()) {
+            for (Book book : bookMapper.findByIds(bookIds)) {
+                books.put(book.getId(), book);
+            }
+        }
+        for (OrderItem orderItem : orderItems) {
+            Book book = books.get(orderItem.getBook().getId());
             if (book == null) {
-                throw new RuntimeException("书籍不存在: " + bookId);
+                throw new RuntimeException("书籍不存在: " + orderItem.getBook().getId());
             }
-            
             orderItem.setBook(book);
-            orderItem.setQuantity(quantity);
             orderItem.setPrice(book.getPrice());
-            orderItems.add(orderItem);
         }
-        
+
         return createOrder(userId, orderItems);
     }
 
@@ -413,72 +508,19 @@ public class OrderService {
             throw new RuntimeException("订单不存在");
         }
         
+        salesRollupService.beforeChange(List.of(id));
         order.setStatus(status);
         orderMapper.update(order);
+        salesRollupService.afterChange(List.of(id));
         
         return orderMapper.findById(id);
     }
     
     /**
-     * 查找并取消所有超过5分钟未支付的订单
-     */
-    @Transactional
-    public void cancelAllOverdueOrders() {
-        // 获取当前时间
-        LocalDateTime now = LocalDateTime.now();
-        // 计算5分钟前的时间
-        LocalDateTime fiveMinutesAgo = now.minusMinutes(5);
-        
-        // 查询所有待支付订单
-        List<Order> allOrders = orderMapper.findAll();
-        
-        // 过滤出超过5分钟的订单
-        List<Order> overdueOrders = allOrders.stream()
-            .filter(order -> order.getStatus() == 0 && order.getOrderDate().isBefore(fiveMinutesAgo))
-            .collect(Collectors.toList());
-        
-        // 取消所有过期订单
-        for (Order order : overdueOrders) {
-            try {
-                // 获取订单的订单项
-                List<OrderItem> orderItems = orderItemMapper.findByOrderId(order.getId());
-                
-                // 恢复库存
-                for (OrderItem item : orderItems) {
-                    Book book = bookMapper.findById(item.getBook().getId());
-                    if (book != null) {
-                        // 恢复库存
-                        book.setStock(book.getStock() + item.getQuantity());
-                        bookMapper.update(book);
-                    }
-                }
-                
-                // 删除订单项
-                orderItemMapper.deleteByOrderId(order.getId());
-                
-                // 删除订单
-                orderMapper.deleteById(order.getId());
-                
-                System.out.println("自动取消超时订单：" + order.getOrderNumber());
-            } catch (Exception e) {
-                System.err.println("取消订单失败：" + order.getOrderNumber() + "，错误：" + e.getMessage());
-            }
-        }
-    }
-
-    /**
-     * 生成订单号
-     * 格式：ORD-年月日-随机数字
+     * 取消已超时的待支付订单
+     * 只处理过期队列中已到期的订单，不扫描订单表；正常情况下由定时任务自动完成
      */
-    private String generateOrderNumber() {
-        LocalDateTime now = LocalDateTime.now();
-        String dateStr = now.format(java.time.format.DateTimeFormatter.ofPattern("yyyyMMdd"));
-
-        // 生成四位随机数
-        java.util.Random random = new java.util.Random();
-        int randomNum = random.nextInt(10000);
-        String randomStr = String.format("%04d", randomNum);
-
-        return "ORD-" + dateStr + "-" + randomStr;
+    public int cancelAllOverdueOrders() {
+        return orderExpiryScheduler.expireDue();
     }
 }
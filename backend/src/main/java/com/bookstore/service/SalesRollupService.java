@@ -0,0 +1,103 @@
+package com.bookstore.service;
+
+import com.bookstore.mapper.SalesRollupMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 销售汇总服务
+ *
+ * 统计接口只读取按小时、天、月和全部时间预先汇总的销售额、图书销量、分类销量以及订单状态计数，
+ * 代价与订单历史的规模无关。订单创建、支付、退款、取消或删除时，在同一事务中把变化前的状态以撤销（-1）、
+ * 变化后的状态以计入（+1）追加到增量表；增量表只追加，不会让所有支付事务在同几行汇总记录上排队。
+ * 定时任务把增量合并到汇总表，统计结果最多落后一个合并周期。
+ */
+@Service
+public class SalesRollupService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SalesRollupService.class);
+
+    /**
+     * 每条合并语句处理的增量记录数上限
+     */
+    private static final int FOLD_BATCH_SIZE = 5000;
+
+    public static final String HOUR = "HOUR";
+    public static final String DAY = "DAY";
+    public static final String MONTH = "MONTH";
+
+    @Autowired
+    private SalesRollupMapper salesRollupMapper;
+
+    /**
+     * 订单将要被修改或删除：锁定订单并撤销其当前状态的汇总
+     * 必须在修改之前、与修改在同一事务中调用，修改后调用 {@link #afterChange}
+     */
+    public void beforeChange(Collection<Long> orderIds) {
+        if (orderIds == null || orderIds.isEmpty()) {
+            return;
+        }
+        List<Long> locked = salesRollupMapper.lockOrders(orderIds);
+        if (!locked.isEmpty()) {
+            salesRollupMapper.insertDeltas(locked, -1, null);
+        }
+    }
+
+    /**
+     * 订单已创建或修改：按订单的当前状态计入汇总，已删除的订单不会被计入
+     */
+    public void afterChange(Collection<Long> orderIds) {
+        if (orderIds == null || orderIds.isEmpty()) {
+            return;
+        }
+        salesRollupMapper.insertDeltas(orderIds, 1, null);
+    }
+
+    /**
+     * 订单状态已由条件更新从 fromStatus 改为当前状态（条件更新已锁定订单）：撤销原状态并计入新状态
+     */
+    public void statusChanged(Collection<Long> orderIds, int fromStatus) {
+        if (orderIds == null || orderIds.isEmpty()) {
+            return;
+        }
+        salesRollupMapper.insertDeltas(orderIds, -1, fromStatus);
+        salesRollupMapper.insertDeltas(orderIds, 1, null);
+    }
+
+    /**
+     * 定时把增量合并到汇总表
+     * @return 合并的增量记录数
+     */
+    @Scheduled(fixedDelayString = "${app.statistics.rollup.fold-interval-ms:1000}")
+    public int fold() {
+        int total = 0;
+        int folded;
+        do {
+            folded = salesRollupMapper.fold(FOLD_BATCH_SIZE);
+            total += folded;
+        } while (folded == FOLD_BATCH_SIZE);
+        return total;
+    }
+
+    /**
+     * 根据全部订单重新生成汇总，用于首次启用或修复汇总数据
+     * 重建期间新的增量等待重建提交后再写入，不会被重复计入或遗漏
+     * @return 处理的增量记录数
+     */
+    @Transactional
+    public int rebuild() {
+        salesRollupMapper.lockDeltas();
+        salesRollupMapper.clear();
+        salesRollupMapper.insertDeltas(null, 1, null);
+        int folded = fold();
+        logger.info("重建销售汇总，处理增量记录{}条", folded);
+        return folded;
+    }
+}
@@ -0,0 +1,261 @@
+package com.bookstore.service;
+
+import com.bookstore.entity.Order;
+import com.bookstore.mapper.SalesRollupMapper;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 实时销售时间序列
+ *
+ * 在内存中按分钟（最近24小时）和按小时（最近7天）保存已支付订单的销售额和订单数，
+ * 数据放在定长的基本类型环形数组中，不访问数据库。口径与销售汇总一致：订单按下单时间计入时间段，
+ * 支付提交后计入，退款提交后从原时间段中扣除。
+ * 管理后台通过 Server-Sent Events 订阅：连接时收到一次完整快照，之后每个推送周期只收到发生变化的时间段，
+ * 打开再多的仪表盘也不会产生数据库查询。
+ * 小时序列在启动时用销售汇总表填充，分钟序列从启动时开始累计；每个实例只能看到自己处理的支付和退款，
+ * 管理员修改或删除订单也不会被推送，所以客户端只应把两次推送之间的变化叠加到汇总数据上。
+ */
+@Component
+public class SalesTimeSeries {
+
+    private static final Logger logger = LoggerFactory.getLogger(SalesTimeSeries.class);
+
+    private static final int MINUTES = 24 * 60;
+    private static final int HOURS = 7 * 24;
+
+    /**
+     * 快照中包含的时间段数量
+     */
+    private static final int SNAPSHOT_MINUTES = 60;
+    private static final int SNAPSHOT_HOURS = 24;
+
+    /**
+     * SSE 连接的超时时间，到期后浏览器会自动重连
+     */
+    @Value("${app.sales-stream.timeout-ms:1800000}")
+    private long emitterTimeoutMillis;
+
+    @Autowired
+    private SalesRollupMapper salesRollupMapper;
+
+    private final Ring minutes = new Ring(MINUTES, 60);
+    private final Ring hours = new Ring(HOURS, 3600);
+
+    /**
+     * 上次推送之后发生变化的时间段
+     */
+    private final Set<Long> changedMinutes = new TreeSet<>();
+    private final Set<Long> changedHours = new TreeSet<>();
+
+    private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    public void load() {
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            List<Map<String, Object>> rows = salesRollupMapper.findSales(SalesRollupService.HOUR,
+                    now.minusHours(HOURS - 1).withMinute(0).withSecond(0).withNano(0), now.plusHours(1));
+            synchronized (this) {
+                for (Map<String, Object> row : rows) {
+                    LocalDateTime bucket = ((Timestamp) row.get("bucket_start")).toLocalDateTime();
+                    hours.add(hours.index(bucket), toCents((BigDecimal) row.get("amount")),
+                            ((Number) row.get("order_count")).intValue());
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("加载小时销售数据失败，小时序列从当前开始累计: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 记录订单的支付或退款，在事务中调用时于提交后生效
+     * @param orders 订单，需要包含下单时间和金额
+     * @param sign 支付为1，退款为-1
+     */
+    public void recordAfterCommit(List<Order> orders, int sign) {
+        if (orders == null || orders.isEmpty()) {
+            return;
+        }
+        // 先取出下单时间和金额，提交时订单对象可能已被修改
+        LocalDateTime now = LocalDateTime.now();
+        List<LocalDateTime> times = new ArrayList<>(orders.size());
+        long[] cents = new long[orders.size()];
+        for (int i = 0; i < orders.size(); i++) {
+            Order order = orders.get(i);
+            times.add(order.getOrderDate() != null ? order.getOrderDate() : now);
+            cents[i] = toCents(order.getTotalAmount());
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    record(times, cents, sign);
+                }
+            });
+        } else {
+            record(times, cents, sign);
+        }
+    }
+
+    /**
+     * 获取当前的完整快照：最近60分钟和最近24小时
+     */
+    public synchronized Map<String, Object> snapshot() {
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("minutes", minutes.points(minutes.index(now), SNAPSHOT_MINUTES));
+        snapshot.put("hours", hours.points(hours.index(now), SNAPSHOT_HOURS));
+        return snapshot;
+    }
+
+    /**
+     * 订阅实时销售数据：先发送 snapshot 事件，之后发送只包含变化时间段的 update 事件
+     */
+    public SseEmitter subscribe() {
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMillis);
+        emitter.onCompletion(() -> emitters.remove(emitter));
+        emitter.onTimeout(() -> emitters.remove(emitter));
+        emitter.onError(error -> emitters.remove(emitter));
+        try {
+            emitter.send(SseEmitter.event().name("snapshot").data(snapshot()));
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+            return emitter;
+        }
+        emitters.add(emitter);
+        return emitter;
+    }
+
+    /**
+     * 定期把变化的时间段推送给所有订阅者，没有变化时只发送注释保持连接
+     */
+    @Scheduled(fixedDelayString = "${app.sales-stream.push-interval-ms:1000}")
+    public void push() {
+        if (emitters.isEmpty()) {
+            synchronized (this) {
+                changedMinutes.clear();
+                changedHours.clear();
+            }
+            return;
+        }
+
+        Map<String, Object> update = null;
+        synchronized (this) {
+            if (!changedMinutes.isEmpty() || !changedHours.isEmpty()) {
+                update = new LinkedHashMap<>();
+                update.put("minutes", minutes.pointsAt(changedMinutes));
+                update.put("hours", hours.pointsAt(changedHours));
+                changedMinutes.clear();
+                changedHours.clear();
+            }
+        }
+
+        for (SseEmitter emitter : emitters) {
+            try {
+                emitter.send(update != null
+                        ? SseEmitter.event().name("update").data(update)
+                        : SseEmitter.event().comment("keepalive"));
+            } catch (IOException | IllegalStateException e) {
+                emitters.remove(emitter);
+            }
+        }
+    }
+
+    private synchronized void record(List<LocalDateTime> times, long[] cents, int sign) {
+        for (int i = 0; i < times.size(); i++) {
+            long minute = minutes.index(times.get(i));
+            long hour = hours.index(times.get(i));
+            minutes.add(minute, sign * cents[i], sign);
+            hours.add(hour, sign * cents[i], sign);
+            changedMinutes.add(minute);
+            changedHours.add(hour);
+        }
+    }
+
+    private static long toCents(BigDecimal amount) {
+        return amount.movePointRight(2).longValue();
+    }
+
+    /**
+     * 定长环形序列：每个位置保存一个时间段的编号、金额（分）和订单数，时间段编号按本地时间计算
+     */
+    private static final class Ring {
+        private final long bucketSeconds;
+        private final long[] indexes;
+        private final long[] cents;
+        private final int[] orders;
+
+        private Ring(int size, long bucketSeconds) {
+            this.bucketSeconds = bucketSeconds;
+            this.indexes = new long[size];
+            this.cents = new long[size];
+            this.orders = new int[size];
+            Arrays.fill(indexes, -1);
+        }
+
+        private long index(LocalDateTime time) {
+            return time.toEpochSecond(ZoneOffset.UTC) / bucketSeconds;
+        }
+
+        private void add(long index, long amountCents, int orderCount) {
+            int slot = (int) (index % indexes.length);
+            if (indexes[slot] != index) {
+                if (indexes[slot] > index) {
+                    // 比环中保存的时间段还早，已超出保留范围
+                    return;
+                }
+                indexes[slot] = index;
+                cents[slot] = 0;
+                orders[slot] = 0;
+            }
+            cents[slot] += amountCents;
+            orders[slot] += orderCount;
+        }
+
+        /**
+         * 以 latest 结尾的 count 个时间段，按时间升序，没有数据的时间段为0
+         */
+        private List<Map<String, Object>> points(long latest, int count) {
+            List<Map<String, Object>> points = new ArrayList<>(count);
+            for (long index = latest - count + 1; index <= latest; index++) {
+                points.add(point(index));
+            }
+            return points;
+        }
+
+        private List<Map<String, Object>> pointsAt(Collection<Long> indexes) {
+            List<Map<String, Object>> points = new ArrayList<>(indexes.size());
+            for (Long index : indexes) {
+                points.add(point(index));
+            }
+            return points;
+        }
+
+        private Map<String, Object> point(long index) {
+            int slot = (int) (index % indexes.length);
+            boolean present = indexes[slot] == index;
+            Map<String, Object> point = new LinkedHashMap<>();
+            point.put("time", LocalDateTime.ofEpochSecond(index * bucketSeconds, 0, ZoneOffset.UTC));
+            point.put("amount", present ? BigDecimal.valueOf(cents[slot], 2) : BigDecimal.ZERO);
+            point.put("orders", present ? orders[slot] : 0);
+            return point;
+        }
+    }
+}
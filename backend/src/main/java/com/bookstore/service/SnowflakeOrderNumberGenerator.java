@@ -0,0 +1,200 @@
+package com.bookstore.service;
+
+import com.bookstore.exception.BusinessException;
+import com.bookstore.mapper.OrderNodeLeaseMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 雪花算法订单号生成器
+ *
+ * 订单号格式：ORD-年月日-序号。序号为 64 位整数：41 位毫秒时间戳 + 10 位节点号 + 12 位毫秒内序列，
+ * 同一节点内严格递增，不同节点的节点号不同，因此无需访问数据库即可保证唯一。
+ * 时间戳和序列保存在一个 AtomicLong 中以 CAS 推进，不加锁；
+ * 同一毫秒内序列用完或系统时钟回拨时，沿用上一个时间戳继续递增，不会产生重复或倒序。
+ * 未配置节点号时，实例启动时从 order_node_lease 表领取一个空闲的节点号并定期更新心跳，
+ * 心跳超时的节点号才会被其他实例领取；心跳连续失败超过超时时间的一半时本实例停止生成订单号，
+ * 直到重新领取到节点号，因此不会有两个实例同时使用同一个节点号。
+ */
+@Component
+public class SnowflakeOrderNumberGenerator implements OrderNumberGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnowflakeOrderNumberGenerator.class);
+
+    /**
+     * 时间戳起点：2024-01-01T00:00:00Z
+     */
+    private static final long EPOCH = 1704067200000L;
+
+    private static final int NODE_BITS = 10;
+
+    private static final int SEQUENCE_BITS = 12;
+
+    private static final long MAX_NODE_ID = (1L << NODE_BITS) - 1;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    /**
+     * 节点号（0-1023），多实例部署时每个实例必须不同；小于0时从数据库领取
+     */
+    @Value("${app.order.node-id:-1}")
+    private long configuredNodeId;
+
+    /**
+     * 节点号租约的心跳超时时间
+     */
+    @Value("${app.order.node-lease-timeout-ms:60000}")
+    private long leaseTimeoutMillis;
+
+    @Autowired
+    private OrderNodeLeaseMapper orderNodeLeaseMapper;
+
+    /**
+     * 本实例在节点号租约中的标识
+     */
+    private final String owner = UUID.randomUUID().toString();
+
+    private volatile long nodeId;
+
+    /**
+     * 领取的节点号可以使用到的时间（本地时钟），配置了节点号时不限制
+     */
+    private volatile long leaseValidUntil = Long.MAX_VALUE;
+
+    /**
+     * 高位为相对 EPOCH 的时间戳，低 12 位为序列
+     */
+    private final AtomicLong state = new AtomicLong();
+
+    /**
+     * 当天的订单号前缀缓存
+     */
+    private volatile DayPrefix dayPrefix;
+
+    @PostConstruct
+    public void init() {
+        if (configuredNodeId >= 0) {
+            if (configuredNodeId > MAX_NODE_ID) {
+                throw new IllegalStateException("app.order.node-id 必须在 0 到 " + MAX_NODE_ID + " 之间");
+            }
+            nodeId = configuredNodeId;
+        } else if (!acquireLease()) {
+            throw new IllegalStateException("没有可用的订单号节点号，请配置 app.order.node-id");
+        }
+    }
+
+    /**
+     * 定期更新节点号租约的心跳，租约已被其他实例领取时重新领取
+     */
+    @Scheduled(fixedDelayString = "${app.order.node-heartbeat-ms:10000}")
+    public synchronized void heartbeat() {
+        if (configuredNodeId >= 0) {
+            return;
+        }
+        long startedAt = System.currentTimeMillis();
+        try {
+            if (orderNodeLeaseMapper.touch(nodeId, owner) > 0) {
+                leaseValidUntil = startedAt + leaseTimeoutMillis / 2;
+                return;
+            }
+            logger.error("订单号节点号{}的租约已超时并被回收，重新领取", nodeId);
+            leaseValidUntil = 0;
+            if (!acquireLease()) {
+                logger.error("没有可用的订单号节点号，暂停生成订单号");
+            }
+        } catch (Exception e) {
+            logger.error("更新订单号节点号{}的心跳失败: {}", nodeId, e.getMessage());
+        }
+    }
+
+    /**
+     * 实例退出时归还节点号
+     */
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (configuredNodeId >= 0) {
+            return;
+        }
+        leaseValidUntil = 0;
+        try {
+            orderNodeLeaseMapper.release(nodeId, owner);
+        } catch (Exception e) {
+            logger.warn("归还订单号节点号{}失败，将在租约超时后回收: {}", nodeId, e.getMessage());
+        }
+    }
+
+    /**
+     * 从数据库领取节点号，与其他实例同时领取同一个节点号时重试
+     * @return 是否领取成功
+     */
+    private boolean acquireLease() {
+        for (int attempt = 0; attempt < 5; attempt++) {
+            long startedAt = System.currentTimeMillis();
+            Integer acquired = orderNodeLeaseMapper.acquire(owner, MAX_NODE_ID, leaseTimeoutMillis);
+            if (acquired != null) {
+                nodeId = acquired;
+                leaseValidUntil = startedAt + leaseTimeoutMillis / 2;
+                logger.info("未配置 app.order.node-id，从数据库领取订单号节点号{}", nodeId);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String nextOrderNumber() {
+        if (System.currentTimeMillis() >= leaseValidUntil) {
+            // 心跳长时间失败，节点号可能已被其他实例领取
+            throw new BusinessException(HttpStatus.SERVICE_UNAVAILABLE.value(), "订单服务暂时不可用，请稍后重试");
+        }
+        long next;
+        long current;
+        do {
+            current = state.get();
+            long now = System.currentTimeMillis() - EPOCH;
+            long timestamp = current >>> SEQUENCE_BITS;
+            // 进入新的毫秒时序列归零，否则在上一个值的基础上加一（序列溢出时自然进位到下一毫秒）
+            next = now > timestamp ? now << SEQUENCE_BITS : current + 1;
+        } while (!state.compareAndSet(current, next));
+
+        long timestamp = next >>> SEQUENCE_BITS;
+        long id = (timestamp << (NODE_BITS + SEQUENCE_BITS)) | (nodeId << SEQUENCE_BITS) | (next & SEQUENCE_MASK);
+        return prefixFor(timestamp + EPOCH) + id;
+    }
+
+    /**
+     * 获取时间戳所在日期的前缀，跨天时才重新格式化
+     */
+    private String prefixFor(long epochMillis) {
+        DayPrefix current = dayPrefix;
+        if (current == null || epochMillis < current.start || epochMillis >= current.end) {
+            LocalDate date = Instant.ofEpochMilli(epochMillis).atZone(ZONE).toLocalDate();
+            long start = date.atStartOfDay(ZONE).toInstant().toEpochMilli();
+            long end = date.plusDays(1).atStartOfDay(ZONE).toInstant().toEpochMilli();
+            current = new DayPrefix(start, end, "ORD-" + date.format(DATE_FORMATTER) + "-");
+            dayPrefix = current;
+        }
+        return current.prefix;
+    }
+
+    private record DayPrefix(long start, long end, String prefix) {
+    }
+}
@@ -1,29 +1,73 @@
 package com.bookstore.service;
 
-import com.bookstore.entity.Book;
-import com.bookstore.entity.Order;
-import com.bookstore.entity.OrderItem;
-import com.bookstore.entity.User;
+import com.bookstore.mapper.BookMapper;
+import com.bookstore.mapper.OrderItemMapper;
+import com.bookstore.mapper.SalesRollupMapper;
+import com.bookstore.mapper.UserMapper;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+/**
+ * 统计服务
+ *
+ * 所有统计数据都读取 {@link SalesRollupService} 维护的汇总表，不再加载订单明细。
+ * 销售额、销量只统计已支付（状态1）的订单，按下单时间归入时间段。
+ * 各项统计结果在一个短时间窗口内缓存并被所有请求共享，管理后台打开统计页时一次请求获取全部面板（{@link #getOverview}），
+ * 多个管理员同时刷新也只在每个窗口内查询一次汇总表。
+ */
 @Service
 public class StatisticsService {
 
     @Autowired
-    private OrderService orderService;
+    private SalesRollupMapper salesRollupMapper;
 
     @Autowired
-    private BookService bookService;
-    
+    private OrderItemMapper orderItemMapper;
+
+    @Autowired
+    private BookMapper bookMapper;
+
     @Autowired
-    private UserService userService;
+    private UserMapper userMapper;
+
+    /**
+     * 统计结果的缓存时间
+     */
+    @Value("${app.statistics.cache-ttl-ms:5000}")
+    private long cacheTtlMillis;
+
+    /**
+     * 畅销排行的最大数量，同时限制缓存的条目数
+     */
+    private static final int MAX_TOP_BOOKS = 100;
+
+    private final Map<String, CachedView> views = new ConcurrentHashMap<>();
+
+    /**
+     * 获取统计页的全部数据：摘要卡片、销售趋势、畅销排行、分类比例和订单状态分布
+     * @param period 销售趋势的时间周期：day, week, month, year
+     * @param limit 畅销排行的数量
+     */
+    public Map<String, Object> getOverview(String period, int limit) {
+        Map<String, Object> overview = new LinkedHashMap<>();
+        overview.put("dashboard", getDashboardStatistics());
+        overview.put("sales", getSalesStatistics(period));
+        overview.put("topBooks", getTopBooks(limit));
+        overview.put("categorySales", getCategorySales());
+        overview.put("orderStatus", getOrderStatusDistribution());
+        return overview;
+    }
 
     /**
      * 获取销售统计数据
@@ -31,28 +75,25 @@ public class StatisticsService {
      * @return 销售统计数据
      */
     public List<Map<String, Object>> getSalesStatistics(String period) {
-        List<Order> orders = orderService.getAllOrders();
-
-        // 只统计已支付、已发货和已完成的订单
-        List<Order> validOrders = orders.stream()
-                .filter(order -> order.getStatus() == 1 || order.getStatus() == 2 || order.getStatus() == 3)
-                .collect(Collectors.toList());
+        return cached("sales:" + period, () -> loadSalesStatistics(period));
+    }
 
-        Map<String, BigDecimal> salesData = new LinkedHashMap<>();
+    private List<Map<String, Object>> loadSalesStatistics(String period) {
+        Map<String, BigDecimal> salesData;
 
         // 根据不同时间周期生成统计数据
         switch (period) {
             case "day":
-                salesData = getDailySales(validOrders);
+                salesData = getDailySales();
                 break;
             case "week":
-                salesData = getWeeklySales(validOrders);
+                salesData = getWeeklySales();
                 break;
             case "month":
-                salesData = getMonthlySales(validOrders);
+                salesData = getMonthlySales();
                 break;
             case "year":
-                salesData = getYearlySales(validOrders);
+                salesData = getYearlySales();
                 break;
             default:
                 // 这里会在Controller中处理无效参数的情况
@@ -76,43 +117,29 @@ public class StatisticsService {
      * @return 畅销书籍排行数据
      */
     public List<Map<String, Object>> getTopBooks(int limit) {
-        List<Order> orders = orderService.getAllOrders();
-
-        // 只统计已支付、已发货和已完成的订单
-        List<Order> validOrders = orders.stream()
-                .filter(order -> order.getStatus() == 1 || order.getStatus() == 2 || order.getStatus() == 3)
-                .collect(Collectors.toList());
-
-        // 统计每本书的销量
-        Map<Long, Integer> bookSales = new HashMap<>();
-
-        for (Order order : validOrders) {
-            if (order.getOrderItems() != null) {
-                for (OrderItem item : order.getOrderItems()) {
-                    Long bookId = item.getBook().getId();
-                    int quantity = item.getQuantity();
+        int topLimit = Math.max(1, Math.min(limit, MAX_TOP_BOOKS));
+        return cached("top-books:" + topLimit, () -> toTopBooks(salesRollupMapper.findTopBooks(topLimit)));
+    }
 
-                    bookSales.put(bookId, bookSales.getOrDefault(bookId, 0) + quantity);
-                }
-            }
+    /**
+     * 获取时间范围内的畅销书籍排行，由数据库分组排序后只返回前 limit 行
+     * @param from 开始时间（包含），为null时不限
+     * @param to 结束时间（不包含），为null时不限
+     */
+    public List<Map<String, Object>> getTopBooks(int limit, LocalDateTime from, LocalDateTime to) {
+        if (from == null && to == null) {
+            return getTopBooks(limit);
         }
+        int topLimit = Math.max(1, Math.min(limit, MAX_TOP_BOOKS));
+        return toTopBooks(orderItemMapper.findTopBooksBetween(from, to, topLimit));
+    }
 
-        // 获取所有图书信息
-        List<Book> allBooks = bookService.getAllBooks();
-        Map<Long, Book> bookMap = allBooks.stream()
-                .collect(Collectors.toMap(Book::getId, book -> book));
-
-        // 构建结果
-        return bookSales.entrySet().stream()
-                .sorted(Map.Entry.<Long, Integer>comparingByValue().reversed())
-                .limit(limit)
-                .map(entry -> {
+    private List<Map<String, Object>> toTopBooks(List<Map<String, Object>> rows) {
+        return rows.stream()
+                .map(row -> {
                     Map<String, Object> item = new HashMap<>();
-                    Book book = bookMap.get(entry.getKey());
-                    if (book != null) {
-                        item.put("title", book.getTitle());
-                        item.put("sales", entry.getValue());
-                    }
+                    item.put("title", row.get("title"));
+                    item.put("sales", ((Number) row.get("quantity")).intValue());
                     return item;
                 })
                 .collect(Collectors.toList());
@@ -123,61 +150,27 @@ public class StatisticsService {
      * @return 分类销售比例数据（按书籍数量）
      */
     public List<Map<String, Object>> getCategorySales() {
-        List<Order> orders = orderService.getAllOrders();
+        return cached("category-sales", () -> toCategorySales(salesRollupMapper.findCategorySales()));
+    }
 
-        // 只统计已支付、已发货和已完成的订单
-        List<Order> validOrders = orders.stream()
-                .filter(order -> order.getStatus() == 1 || order.getStatus() == 2 || order.getStatus() == 3)
-                .collect(Collectors.toList());
+    /**
+     * 获取时间范围内的分类销售比例，由数据库按分类分组汇总
+     * @param from 开始时间（包含），为null时不限
+     * @param to 结束时间（不包含），为null时不限
+     */
+    public List<Map<String, Object>> getCategorySales(LocalDateTime from, LocalDateTime to) {
+        if (from == null && to == null) {
+            return getCategorySales();
+        }
+        return toCategorySales(orderItemMapper.sumSalesByCategoryBetween(from, to));
+    }
 
-        // 统计每个分类的书籍数量
+    private List<Map<String, Object>> toCategorySales(List<Map<String, Object>> rows) {
+        // 按图书的原始分类分组，这里统一分类名称后合并
         Map<String, Integer> categoryQuantities = new HashMap<>();
-
-        for (Order order : validOrders) {
-            if (order.getOrderItems() != null) {
-                for (OrderItem item : order.getOrderItems()) {
-                    String category = item.getBook().getCategory();
-                    // 处理null分类和格式问题
-                    if (category == null || category.isEmpty()) {
-                        category = "未分类";
-                    } else {
-                        // 清理分类字符串，去除多余的空格、换行符等
-                        category = category.trim().replaceAll("\\s+", "");
-
-                        // 映射分类名称为中文（可根据需要调整）
-                        switch (category.toLowerCase()) {
-                            case "novel":
-                            case "novell":
-                                category = "小说";
-                                break;
-                            case "technology":
-                                category = "科技";
-                                break;
-                            case "education":
-                                category = "教育";
-                                break;
-                            case "economics":
-                                category = "经济";
-                                break;
-                            case "children":
-                                category = "儿童";
-                                break;
-                            case "biography":
-                                category = "传记";
-                                break;
-                            case "history":
-                                category = "历史";
-                                break;
-                            case "science":
-                                category = "科学";
-                                break;
-                        }
-                    }
-                    // 使用书籍数量而不是销售额
-                    int quantity = item.getQuantity();
-                    categoryQuantities.put(category, categoryQuantities.getOrDefault(category, 0) + quantity);
-                }
-            }
+        for (Map<String, Object> row : rows) {
+            String category = displayCategory((String) row.get("category"));
+            categoryQuantities.merge(category, ((Number) row.get("quantity")).intValue(), Integer::sum);
         }
 
         // 如果没有数据，添加一个默认项
@@ -201,28 +194,32 @@ public class StatisticsService {
      * @return 订单状态分布数据
      */
     public List<Map<String, Object>> getOrderStatusDistribution() {
-        List<Order> orders = orderService.getAllOrders();
+        return cached("order-status", this::loadOrderStatusDistribution);
+    }
+
+    private List<Map<String, Object>> loadOrderStatusDistribution() {
+        // 统计每种状态的订单数量
+        Map<Integer, Integer> statusCount = new HashMap<>();
+        for (Map<String, Object> row : salesRollupMapper.findStatusCounts()) {
+            int count = ((Number) row.get("order_count")).intValue();
+            if (count > 0) {
+                statusCount.put(((Number) row.get("status")).intValue(), count);
+            }
+        }
 
         // 如果没有任何订单，返回默认项
-        if (orders.isEmpty()) {
+        if (statusCount.isEmpty()) {
             Map<String, Object> defaultItem = new HashMap<>();
             defaultItem.put("name", "暂无数据");
             defaultItem.put("value", 1);
             return Collections.singletonList(defaultItem);
         }
 
-        // 统计每种状态的订单数量
-        Map<Integer, Integer> statusCount = new HashMap<>();
-
-        for (Order order : orders) {
-            Integer status = order.getStatus();
-            statusCount.put(status, statusCount.getOrDefault(status, 0) + 1);
-        }
-
-        // 状态文本映射 - 只使用待支付和已完成两种状态
+        // 状态文本映射 - 待支付、已完成和已退款
         Map<Integer, String> statusText = new HashMap<>();
         statusText.put(0, "待支付");
         statusText.put(1, "已完成");
+        statusText.put(4, "已退款");
 
         // 确保这两种状态都有数据，即使是0
         for (int i = 0; i <= 1; i++) {
@@ -231,9 +228,9 @@ public class StatisticsService {
             }
         }
 
-        // 构建结果 - 只包含待支付和已完成两种状态
+        // 构建结果 - 只包含待支付、已完成和已退款三种状态
         return statusCount.entrySet().stream()
-                .filter(entry -> entry.getKey() == 0 || entry.getKey() == 1) // 只保留状态 0,1
+                .filter(entry -> statusText.containsKey(entry.getKey())) // 只保留状态 0,1,4
                 .map(entry -> {
                     Map<String, Object> item = new HashMap<>();
                     item.put("name", statusText.getOrDefault(entry.getKey(), "未知状态"));
@@ -243,37 +240,23 @@ public class StatisticsService {
                 .collect(Collectors.toList());
     }
 
-    // 辅助方法：获取每日销售数据
-    private Map<String, BigDecimal> getDailySales(List<Order> orders) {
+    // 辅助方法：获取今天每小时的销售数据
+    private Map<String, BigDecimal> getDailySales() {
         Map<String, BigDecimal> dailySales = new LinkedHashMap<>();
 
         // 初始化24小时的数据
         for (int i = 0; i < 24; i++) {
-            String hour = String.format("%d:00", i);
-            dailySales.put(hour, BigDecimal.ZERO);
-        }
-
-        // 统计每小时的销售额
-        for (Order order : orders) {
-            LocalDateTime orderDate = order.getOrderDate();
-            if (orderDate != null) {
-                // 只统计今天的订单
-                LocalDate today = LocalDate.now();
-                if (orderDate.toLocalDate().equals(today)) {
-                    int hour = orderDate.getHour();
-                    String hourKey = String.format("%d:00", hour);
-
-                    BigDecimal amount = order.getTotalAmount();
-                    dailySales.put(hourKey, dailySales.get(hourKey).add(amount));
-                }
-            }
+            dailySales.put(String.format("%d:00", i), BigDecimal.ZERO);
         }
 
+        LocalDateTime today = LocalDate.now().atStartOfDay();
+        fillSales(dailySales, SalesRollupService.HOUR, today, today.plusDays(1),
+                bucket -> String.format("%d:00", bucket.getHour()));
         return dailySales;
     }
 
-    // 辅助方法：获取每周销售数据
-    private Map<String, BigDecimal> getWeeklySales(List<Order> orders) {
+    // 辅助方法：获取本周每天的销售数据
+    private Map<String, BigDecimal> getWeeklySales() {
         Map<String, BigDecimal> weeklySales = new LinkedHashMap<>();
 
         // 初始化一周的数据
@@ -284,64 +267,31 @@ public class StatisticsService {
 
         // 获取本周的开始日期（周日）
         LocalDate today = LocalDate.now();
-        LocalDate startOfWeek = today.minusDays(today.getDayOfWeek().getValue() % 7);
-
-        // 统计每天的销售额
-        for (Order order : orders) {
-            LocalDateTime orderDate = order.getOrderDate();
-            if (orderDate != null) {
-                LocalDate orderDay = orderDate.toLocalDate();
-
-                // 只统计本周的订单
-                if (!orderDay.isBefore(startOfWeek) && !orderDay.isAfter(startOfWeek.plusDays(6))) {
-                    int dayOfWeek = orderDay.getDayOfWeek().getValue() % 7; // 0=周日, 1=周一, ..., 6=周六
-                    String dayKey = days[dayOfWeek];
-
-                    BigDecimal amount = order.getTotalAmount();
-                    weeklySales.put(dayKey, weeklySales.get(dayKey).add(amount));
-                }
-            }
-        }
+        LocalDateTime startOfWeek = today.minusDays(today.getDayOfWeek().getValue() % 7).atStartOfDay();
 
+        fillSales(weeklySales, SalesRollupService.DAY, startOfWeek, startOfWeek.plusDays(7),
+                bucket -> days[bucket.getDayOfWeek().getValue() % 7]); // 0=周日, 1=周一, ..., 6=周六
         return weeklySales;
     }
 
-    // 辅助方法：获取每月销售数据
-    private Map<String, BigDecimal> getMonthlySales(List<Order> orders) {
+    // 辅助方法：获取本月每天的销售数据
+    private Map<String, BigDecimal> getMonthlySales() {
         Map<String, BigDecimal> monthlySales = new LinkedHashMap<>();
 
-        // 获取当前月份的天数
-        LocalDate today = LocalDate.now();
-        int daysInMonth = today.lengthOfMonth();
-
         // 初始化当月每天的数据
-        for (int i = 1; i <= daysInMonth; i++) {
-            String day = i + "日";
-            monthlySales.put(day, BigDecimal.ZERO);
-        }
-
-        // 统计每天的销售额
-        for (Order order : orders) {
-            LocalDateTime orderDate = order.getOrderDate();
-            if (orderDate != null) {
-                LocalDate orderDay = orderDate.toLocalDate();
-
-                // 只统计本月的订单
-                if (orderDay.getYear() == today.getYear() && orderDay.getMonth() == today.getMonth()) {
-                    int dayOfMonth = orderDay.getDayOfMonth();
-                    String dayKey = dayOfMonth + "日";
-
-                    BigDecimal amount = order.getTotalAmount();
-                    monthlySales.put(dayKey, monthlySales.getOrDefault(dayKey, BigDecimal.ZERO).add(amount));
-                }
-            }
+        LocalDate today = LocalDate.now();
+        for (int i = 1; i <= today.lengthOfMonth(); i++) {
+            monthlySales.put(i + "日", BigDecimal.ZERO);
         }
 
+        LocalDateTime startOfMonth = today.withDayOfMonth(1).atStartOfDay();
+        fillSales(monthlySales, SalesRollupService.DAY, startOfMonth, startOfMonth.plusMonths(1),
+                bucket -> bucket.getDayOfMonth() + "日");
         return monthlySales;
     }
 
-    // 辅助方法：获取每年销售数据
-    private Map<String, BigDecimal> getYearlySales(List<Order> orders) {
+    // 辅助方法：获取今年每月的销售数据
+    private Map<String, BigDecimal> getYearlySales() {
         Map<String, BigDecimal> yearlySales = new LinkedHashMap<>();
 
         // 初始化12个月的数据
@@ -350,53 +300,112 @@ public class StatisticsService {
             yearlySales.put(month, BigDecimal.ZERO);
         }
 
-        // 获取今年的年份
-        int currentYear = LocalDate.now().getYear();
+        LocalDateTime startOfYear = LocalDate.now().withDayOfYear(1).atStartOfDay();
+        fillSales(yearlySales, SalesRollupService.MONTH, startOfYear, startOfYear.plusYears(1),
+                bucket -> months[bucket.getMonthValue() - 1]);
+        return yearlySales;
+    }
 
-        // 统计每月的销售额
-        for (Order order : orders) {
-            LocalDateTime orderDate = order.getOrderDate();
-            if (orderDate != null && orderDate.getYear() == currentYear) {
-                int monthIndex = orderDate.getMonthValue() - 1; // 0-based index
-                String monthKey = months[monthIndex];
+    /**
+     * 把汇总表中时间范围内的销售额填入对应的时间段
+     */
+    private void fillSales(Map<String, BigDecimal> sales, String granularity, LocalDateTime from, LocalDateTime to,
+                           Function<LocalDateTime, String> label) {
+        for (Map<String, Object> row : salesRollupMapper.findSales(granularity, from, to)) {
+            LocalDateTime bucket = ((Timestamp) row.get("bucket_start")).toLocalDateTime();
+            sales.merge(label.apply(bucket), (BigDecimal) row.get("amount"), BigDecimal::add);
+        }
+    }
 
-                BigDecimal amount = order.getTotalAmount();
-                yearlySales.put(monthKey, yearlySales.get(monthKey).add(amount));
-            }
+    /**
+     * 统一分类名称：去除空白，英文分类映射为中文，没有分类时为"未分类"
+     */
+    private static String displayCategory(String category) {
+        if (category == null || category.isEmpty()) {
+            return "未分类";
+        }
+        // 清理分类字符串，去除多余的空格、换行符等
+        category = category.trim().replaceAll("\\s+", "");
+        if (category.isEmpty()) {
+            return "未分类";
         }
 
-        return yearlySales;
+        // 映射分类名称为中文（可根据需要调整）
+        switch (category.toLowerCase()) {
+            case "novel":
+            case "novell":
+                return "小说";
+            case "technology":
+                return "科技";
+            case "education":
+                return "教育";
+            case "economics":
+                return "经济";
+            case "children":
+                return "儿童";
+            case "biography":
+                return "传记";
+            case "history":
+                return "历史";
+            case "science":
+                return "科学";
+            default:
+                return category;
+        }
     }
-    
+
     /**
      * 获取仪表盘统计数据
      * @return 包含总销售额、总订单数、用户总数、图书总数的数据
      */
     public Map<String, Object> getDashboardStatistics() {
+        return cached("dashboard", this::loadDashboardStatistics);
+    }
+
+    private Map<String, Object> loadDashboardStatistics() {
         Map<String, Object> result = new HashMap<>();
-        
+        Map<String, Object> totals = salesRollupMapper.findTotals();
+
         // 1. 获取总销售额（只统计已完成的订单）
-        List<Order> orders = orderService.getAllOrders();
-        BigDecimal totalSales = orders.stream()
-                .filter(order -> order.getStatus() == 1) // 只统计已完成的订单
-                .map(Order::getTotalAmount)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-        result.put("totalSales", totalSales);
-        
+        result.put("totalSales", totals.get("total_sales"));
+
         // 2. 获取总订单数
-        int totalOrders = orders.size();
-        result.put("totalOrders", totalOrders);
-        
+        result.put("totalOrders", ((Number) totals.get("total_orders")).intValue());
+
         // 3. 获取用户总数
-        List<User> users = userService.getAllUsers();
-        int totalUsers = users.size();
-        result.put("totalUsers", totalUsers);
-        
+        result.put("totalUsers", userMapper.count());
+
         // 4. 获取图书总数
-        List<Book> books = bookService.getAllBooks();
-        int totalBooks = books.size();
-        result.put("totalBooks", totalBooks);
-        
+        result.put("totalBooks", bookMapper.count());
+
         return result;
     }
-}
\ No newline at end of file
+
+    /**
+     * 读取缓存的统计结果，过期时重新加载；同一项统计同时只有一个请求加载，其他请求等待并共享结果
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T cached(String key, Supplier<T> loader) {
+        CachedView view = views.get(key);
+        if (view == null || view.isExpired()) {
+            view = views.compute(key, (k, current) -> current != null && !current.isExpired()
+                    ? current
+                    : new CachedView(loader.get(), System.currentTimeMillis() + cacheTtlMillis));
+        }
+        return (T) view.value;
+    }
+
+    private static final class CachedView {
+        private final Object value;
+        private final long expiresAt;
+
+        private CachedView(Object value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.bookstore.service;
+
+import com.bookstore.entity.Book;
+import com.bookstore.exception.BusinessException;
+import com.bookstore.exception.InsufficientStockException;
+import com.bookstore.mapper.BookMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+
+/**
+ * 库存预占服务
+ *
+ * 整单的库存扣减在一条条件更新语句中完成：同一本书的数量先合并，按图书ID顺序加锁，
+ * 每本书只在 stock >= 数量 时扣减。任意一本扣减失败都会抛出带明细的异常，
+ * 由调用方事务回滚已扣减的部分。秒杀中的图书改由 {@link FlashSaleService} 在内存中预占。
+ */
+@Service
+public class StockReservationService {
+
+    @Autowired
+    private BookMapper bookMapper;
+
+    @Autowired
+    private BookCatalogCache bookCatalogCache;
+
+    @Autowired
+    private FlashSaleService flashSaleService;
+
+    /**
+     * 扣减库存，必须在调用方的事务中执行
+     * @param quantities 图书ID -> 购买数量，同一本书可以由调用方预先合并
+     * @throws InsufficientStockException 任意图书库存不足或不存在时
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void reserve(Map<Long, Integer> quantities) {
+        if (quantities == null || quantities.isEmpty()) {
+            throw new BusinessException(HttpStatus.BAD_REQUEST.value(), "订单中没有商品");
+        }
+        SortedMap<Long, Integer> sorted = new TreeMap<>();
+        quantities.forEach((bookId, quantity) -> {
+            if (bookId == null || quantity == null || quantity <= 0) {
+                throw new BusinessException(HttpStatus.BAD_REQUEST.value(), "购买数量必须大于0");
+            }
+            sorted.merge(bookId, quantity, Integer::sum);
+        });
+
+        // 秒杀图书在内存中预占，其余图书走数据库条件扣减
+        SortedMap<Long, Integer> flashSale = new TreeMap<>();
+        SortedMap<Long, Integer> regular = new TreeMap<>();
+        sorted.forEach((bookId, quantity) ->
+                (flashSaleService.isFlashSale(bookId) ? flashSale : regular).put(bookId, quantity));
+
+        List<InsufficientStockException.Shortage> shortages = flashSale.isEmpty()
+                ? new ArrayList<>()
+                : new ArrayList<>(flashSaleService.tryReserve(flashSale));
+        if (!regular.isEmpty()) {
+            shortages.addAll(reserveInDatabase(regular));
+        }
+        if (!shortages.isEmpty()) {
+            throw new InsufficientStockException(shortages);
+        }
+    }
+
+    /**
+     * 数据库条件扣减
+     * @return 库存不足的明细
+     */
+    private List<InsufficientStockException.Shortage> reserveInDatabase(SortedMap<Long, Integer> quantities) {
+        List<Long> reserved = bookMapper.reserveStock(quantities);
+        bookCatalogCache.evict(reserved);
+        if (reserved.size() == quantities.size()) {
+            return List.of();
+        }
+
+        Set<Long> reservedIds = new HashSet<>(reserved);
+        List<Long> failedIds = new ArrayList<>();
+        for (Long bookId : quantities.keySet()) {
+            if (!reservedIds.contains(bookId)) {
+                failedIds.add(bookId);
+            }
+        }
+        // 未扣减的图书行已被本事务锁定，这里读到的就是当前库存
+        Map<Long, Book> books = new HashMap<>();
+        for (Book book : bookMapper.findByIds(failedIds)) {
+            books.put(book.getId(), book);
+        }
+
+        List<InsufficientStockException.Shortage> shortages = new ArrayList<>(failedIds.size());
+        for (Long bookId : failedIds) {
+            Book book = books.get(bookId);
+            shortages.add(new InsufficientStockException.Shortage(bookId,
+                    book == null ? null : book.getTitle(),
+                    quantities.get(bookId),
+                    book == null ? 0 : book.getStock()));
+        }
+        return shortages;
+    }
+}
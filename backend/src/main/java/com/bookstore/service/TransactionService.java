@@ -1,34 +1,89 @@
 package com.bookstore.service;
 
-import com.bookstore.entity.WalletTransaction;
+import com.bookstore.entity.Wallet;
+import com.bookstore.dto.WalletTransactionDTO;
+import com.bookstore.mapper.WalletMapper;
 import com.bookstore.mapper.WalletTransactionMapper;
+import com.bookstore.util.PageCursor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.ibatis.cursor.Cursor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.server.ResponseStatusException;
 import org.springframework.http.HttpStatus;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
 import java.util.*;
-import java.util.stream.Collectors;
 
+/**
+ * 交易记录查询服务
+ *
+ * 类型、日期范围、排序和分页都下推到数据库，由 (wallet_id, [type,] create_time, id) 索引支撑，
+ * 每次只读取请求的一页。传入游标时按 (create_time, id) 做键集分页，代价与翻页深度和用户的交易总量无关；
+ * 总数只在页码分页或显式请求时统计。
+ * 完整导出通过 MyBatis 游标逐行写出 CSV 或 NDJSON，不会把交易记录整体加载到内存。
+ */
 @Service
 public class TransactionService {
 
+    private static final Logger logger = LoggerFactory.getLogger(TransactionService.class);
+
+    /**
+     * 请求中的日期格式（严格解析，不接受 2024-02-30 这样的日期）
+     */
+    private static final DateTimeFormatter DATE_FORMATTER =
+            DateTimeFormatter.ofPattern("uuuu-MM-dd").withResolverStyle(ResolverStyle.STRICT);
+
+    /**
+     * 导出文件中的时间格式
+     */
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final String CSV_HEADER = "id,createTime,type,amount,description,status,relatedOrderId,orderNumber\r\n";
+
     @Autowired
     private WalletTransactionMapper walletTransactionMapper;
 
+    @Autowired
+    private WalletMapper walletMapper;
+
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     /**
      * 获取用户的交易记录
      * @param userId 用户ID
-     * @param type 交易类型（可选）
+     * @param type 交易类型（可选，all 表示全部）
      * @param startDate 开始日期（可选）
      * @param endDate 结束日期（可选）
-     * @param page 页码
+     * @param sort 按创建时间排序的方向，asc 或 desc（默认）
+     * @param page 页码，使用游标时忽略
      * @param size 每页大小
+     * @param cursor 上一页返回的游标，不为null时使用游标分页（第一页传空字符串）
+     * @param withTotal 游标分页时是否同时返回总数
      * @return 包含交易记录列表和分页信息的Map
      * @throws IllegalArgumentException 当请求参数无效时
      */
@@ -37,138 +92,285 @@ public class TransactionService {
             String type,
             String startDate,
             String endDate,
+            String sort,
             int page,
-            int size) {
+            int size,
+            String cursor,
+            boolean withTotal) {
 
         // 验证参数
         validateParameters(userId, page, size);
-        
-        System.out.println("接收到获取交易记录请求 - 用户ID: " + userId);
-        System.out.println("请求参数 - 类型: " + type + ", 开始日期: " + startDate + ", 结束日期: " + endDate + ", 页码: " + page + ", 每页大小: " + size);
+        Filter filter = parseFilter(type, startDate, endDate);
+        String typeFilter = filter.type;
+        LocalDateTime start = filter.start;
+        LocalDateTime end = filter.end;
+        boolean ascending = parseSort(sort);
+        PageCursor pageCursor = decodeCursor(cursor);
 
-        // 验证用户是否存在
-        if (userService.getUserById(userId) == null) {
-            System.out.println("用户不存在: " + userId);
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "用户不存在: " + userId);
-        }
+        logger.debug("查询交易记录 - 用户ID: {}, 类型: {}, 日期: {} ~ {}, 排序: {}, 页码: {}, 每页大小: {}, 游标: {}",
+                userId, typeFilter, startDate, endDate, ascending ? "asc" : "desc", page, size, cursor);
 
-        // 获取用户的所有交易记录
-        List<WalletTransaction> transactions = walletTransactionMapper.findByUserId(userId);
+        // 交易记录都挂在钱包下，没有钱包的用户没有交易记录
+        Wallet wallet = walletMapper.findByUserId(userId);
+        if (wallet == null) {
+            if (userService.getUserById(userId) == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "用户不存在: " + userId);
+            }
+            return cursor != null
+                    ? buildCursorPage(List.of(), size, ascending, withTotal ? 0 : null)
+                    : buildOffsetPage(List.of(), page, size, 0);
+        }
 
-        // 确保transactions不为null
-        if (transactions == null) {
-            System.out.println("查询结果为null，初始化为空列表");
-            transactions = new java.util.ArrayList<>();
+        if (cursor != null) {
+            // 多取一条用于判断是否还有下一页
+            List<WalletTransactionDTO> transactions = walletTransactionMapper.findPageByWalletId(
+                    wallet.getId(), typeFilter, start, end, pageCursor, ascending, 0, size + 1);
+            Integer total = withTotal
+                    ? walletTransactionMapper.countByWalletId(wallet.getId(), typeFilter, start, end)
+                    : null;
+            return buildCursorPage(transactions, size, ascending, total);
         }
 
-        System.out.println("查询到交易记录数量: " + transactions.size());
+        List<WalletTransactionDTO> transactions = walletTransactionMapper.findPageByWalletId(
+                wallet.getId(), typeFilter, start, end, null, ascending, (page - 1) * size, size);
+        int totalItems = walletTransactionMapper.countByWalletId(wallet.getId(), typeFilter, start, end);
+        logger.debug("用户{}的交易记录共{}条，本页{}条", userId, totalItems, transactions.size());
+        return buildOffsetPage(transactions, page, size, totalItems);
+    }
+
+    /**
+     * 导出用户的交易记录
+     * 参数在返回前校验，返回的响应体在写出时才开启只读事务，通过游标逐行读取并直接写入输出流，
+     * 内存占用与导出的记录数无关
+     * @param userId 用户ID
+     * @param type 交易类型（可选，all 表示全部）
+     * @param startDate 开始日期（可选）
+     * @param endDate 结束日期（可选）
+     * @param format 导出格式，csv 或 ndjson
+     * @return 写出导出内容的响应体
+     * @throws IllegalArgumentException 当请求参数无效时
+     */
+    public StreamingResponseBody exportUserTransactions(
+            Long userId,
+            String type,
+            String startDate,
+            String endDate,
+            String format) {
+
+        if (userId == null || userId <= 0) {
+            throw new IllegalArgumentException("用户ID必须为正整数");
+        }
+        boolean csv = isCsv(format);
+        Filter filter = parseFilter(type, startDate, endDate);
 
-        // 根据类型筛选
-        if (type != null && !type.equals("all")) {
-            transactions = transactions.stream()
-                    .filter(t -> t.getType().equalsIgnoreCase(type))
-                    .collect(Collectors.toList());
+        Wallet wallet = walletMapper.findByUserId(userId);
+        if (wallet == null && userService.getUserById(userId) == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "用户不存在: " + userId);
         }
 
-        // 根据日期范围筛选
-        if (startDate != null && endDate != null) {
-            try {
-                // 解析日期字符串为Date对象
-                SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-                sdf.setLenient(false); // 严格解析日期格式
-                Date start = sdf.parse(startDate);
-                Date end = sdf.parse(endDate);
-
-                // 验证日期范围
-                if (start.after(end)) {
-                    throw new IllegalArgumentException("开始日期不能晚于结束日期");
-                }
-
-                // 设置结束日期为当天的最后一刻
-                Calendar calendar = Calendar.getInstance();
-                calendar.setTime(end);
-                calendar.set(Calendar.HOUR_OF_DAY, 23);
-                calendar.set(Calendar.MINUTE, 59);
-                calendar.set(Calendar.SECOND, 59);
-                calendar.set(Calendar.MILLISECOND, 999);
-                Date endOfDay = calendar.getTime();
-
-                transactions = transactions.stream()
-                        .filter(t -> {
-                            Date transactionDate = t.getCreateTime();
-                            return transactionDate != null && 
-                                   !transactionDate.before(start) && 
-                                   !transactionDate.after(endOfDay);
-                        })
-                        .collect(Collectors.toList());
-            } catch (ParseException e) {
-                // 日期解析错误，抛出异常
-                throw new IllegalArgumentException("日期格式错误，请使用yyyy-MM-dd格式", e);
+        return outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 64 * 1024);
+            if (csv) {
+                // 带BOM，Excel 才能正确识别 UTF-8 中文
+                writer.write('\uFEFF');
+                writer.write(CSV_HEADER);
             }
-        } else if (startDate != null || endDate != null) {
-            // 如果只提供了一个日期参数，抛出异常
-            throw new IllegalArgumentException("开始日期和结束日期必须同时提供");
+            long count = 0;
+            if (wallet != null) {
+                TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+                transactionTemplate.setReadOnly(true);
+                count = transactionTemplate.execute(status -> {
+                    long written = 0;
+                    try (Cursor<WalletTransactionDTO> transactions = walletTransactionMapper.streamByWalletId(
+                            wallet.getId(), filter.type, filter.start, filter.end)) {
+                        for (WalletTransactionDTO transaction : transactions) {
+                            if (csv) {
+                                writeCsvRow(writer, transaction);
+                            } else {
+                                writer.write(objectMapper.writeValueAsString(toRow(transaction)));
+                                writer.write('\n');
+                            }
+                            written++;
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return written;
+                });
+            }
+            writer.flush();
+            logger.info("导出用户{}的交易记录{}条（{}）", userId, count, csv ? "csv" : "ndjson");
+        };
+    }
+
+    /**
+     * 导出格式是否为CSV
+     * @throws IllegalArgumentException 格式不支持时
+     */
+    public static boolean isCsv(String format) {
+        if (format == null || format.isBlank() || format.equalsIgnoreCase("csv")) {
+            return true;
+        }
+        if (format.equalsIgnoreCase("ndjson")) {
+            return false;
         }
+        throw new IllegalArgumentException("导出格式只能是csv或ndjson");
+    }
 
-        // 按创建时间倒序排序
-        transactions.sort(Comparator.comparing(WalletTransaction::getCreateTime).reversed());
-        
-        // 计算总记录数
-        int totalItems = transactions.size();
-
-        // 分页
-        int startItem = (page - 1) * size;
-        List<WalletTransaction> pagedTransactions = transactions.stream()
-                .skip(startItem)
-                .limit(size)
-                .collect(Collectors.toList());
-
-        System.out.println("分页后的交易记录数量: " + pagedTransactions.size());
-
-        // 将WalletTransaction转换为前端友好的格式
-        List<Map<String, Object>> formattedTransactions = new ArrayList<>();
-
-        for (WalletTransaction transaction : pagedTransactions) {
-            try {
-                Map<String, Object> item = new HashMap<>();
-                item.put("id", transaction.getId());
-                item.put("createTime", transaction.getCreateTime());
-                item.put("type", transaction.getType());
-                item.put("amount", transaction.getAmount());
-                item.put("description", transaction.getDescription());
-                item.put("status", transaction.getStatus());
-
-                // 添加关联订单信息（如果有）
-                if (transaction.getRelatedOrder() != null) {
-                    item.put("relatedOrderId", transaction.getRelatedOrder().getId());
-                    item.put("orderNumber", transaction.getRelatedOrder().getOrderNumber());
-                }
-
-                formattedTransactions.add(item);
-                System.out.println("处理交易记录: ID=" + transaction.getId() +
-                        ", 类型=" + transaction.getType() +
-                        ", 金额=" + transaction.getAmount() +
-                        ", 状态=" + transaction.getStatus());
-            } catch (Exception e) {
-                System.err.println("处理交易记录时出错: " + e.getMessage());
-                e.printStackTrace();
-                // 继续处理其他交易记录，不中断整个过程
-            }
+    private void writeCsvRow(Writer writer, WalletTransactionDTO transaction) throws IOException {
+        writer.write(String.valueOf(transaction.getId()));
+        writer.write(',');
+        writer.write(formatTime(transaction.getCreateTime()));
+        writer.write(',');
+        writer.write(csvField(transaction.getType()));
+        writer.write(',');
+        writer.write(transaction.getAmount() == null ? "" : transaction.getAmount().toPlainString());
+        writer.write(',');
+        writer.write(csvField(transaction.getDescription()));
+        writer.write(',');
+        writer.write(csvField(transaction.getStatus()));
+        writer.write(',');
+        writer.write(transaction.getRelatedOrderId() == null ? "" : String.valueOf(transaction.getRelatedOrderId()));
+        writer.write(',');
+        writer.write(csvField(transaction.getOrderNumber()));
+        writer.write("\r\n");
+    }
+
+    /**
+     * 按 RFC 4180 转义CSV字段，包含逗号、引号或换行时加引号
+     */
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
         }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
 
-        System.out.println("格式化后的交易记录数量: " + formattedTransactions.size());
+    /**
+     * NDJSON 中的一行，时间格式与CSV一致
+     */
+    private Map<String, Object> toRow(WalletTransactionDTO transaction) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", transaction.getId());
+        row.put("createTime", formatTime(transaction.getCreateTime()));
+        row.put("type", transaction.getType());
+        row.put("amount", transaction.getAmount());
+        row.put("description", transaction.getDescription());
+        row.put("status", transaction.getStatus());
+        if (transaction.getRelatedOrderId() != null) {
+            row.put("relatedOrderId", transaction.getRelatedOrderId());
+            row.put("orderNumber", transaction.getOrderNumber());
+        }
+        return row;
+    }
+
+    private static String formatTime(Date time) {
+        return time == null ? "" : TIME_FORMATTER.format(toLocalDateTime(time));
+    }
 
-        // 构建响应
+    /**
+     * 构建页码分页结果
+     */
+    private Map<String, Object> buildOffsetPage(List<WalletTransactionDTO> transactions, int page, int size, int totalItems) {
         Map<String, Object> response = new HashMap<>();
-        response.put("transactions", formattedTransactions);
+        response.put("transactions", transactions);
         response.put("currentPage", page);
         response.put("totalItems", totalItems);
         response.put("totalPages", totalItems > 0 ? (int) Math.ceil((double) totalItems / size) : 1);
         response.put("pageSize", size);
+        response.put("nextCursor", transactions.size() == size ? transactionCursor(transactions.get(size - 1)) : null);
+        return response;
+    }
+
+    /**
+     * 构建游标分页结果，transactions 比 size 多一条时表示还有下一页
+     */
+    private Map<String, Object> buildCursorPage(List<WalletTransactionDTO> transactions, int size, boolean ascending,
+                                                Integer total) {
+        boolean hasMore = transactions.size() > size;
+        List<WalletTransactionDTO> pageTransactions = hasMore ? transactions.subList(0, size) : transactions;
 
+        Map<String, Object> response = new HashMap<>();
+        response.put("transactions", pageTransactions);
+        response.put("pageSize", size);
+        response.put("sort", ascending ? "asc" : "desc");
+        response.put("hasMore", hasMore);
+        response.put("nextCursor", hasMore ? transactionCursor(pageTransactions.get(size - 1)) : null);
+        if (total != null) {
+            response.put("totalItems", total);
+        }
         return response;
     }
-    
+
+    /**
+     * 生成交易记录游标，时间使用数据库中的完整精度，避免截断后跳过同一毫秒内的记录
+     */
+    private String transactionCursor(WalletTransactionDTO transaction) {
+        return PageCursor.of(toLocalDateTime(transaction.getCreateTime()), transaction.getId()).encode();
+    }
+
+    private static LocalDateTime toLocalDateTime(Date time) {
+        return time instanceof Timestamp
+                ? ((Timestamp) time).toLocalDateTime()
+                : LocalDateTime.ofInstant(time.toInstant(), ZoneId.systemDefault());
+    }
+
+    /**
+     * 解析类型和日期范围筛选条件
+     */
+    private Filter parseFilter(String type, String startDate, String endDate) {
+        String typeFilter = type == null || type.isBlank() || type.equalsIgnoreCase("all")
+                ? null : type.toUpperCase(Locale.ROOT);
+        LocalDateTime start = null;
+        LocalDateTime end = null;
+        if (startDate != null && endDate != null) {
+            LocalDate startDay = parseDate(startDate);
+            LocalDate endDay = parseDate(endDate);
+            if (startDay.isAfter(endDay)) {
+                throw new IllegalArgumentException("开始日期不能晚于结束日期");
+            }
+            start = startDay.atStartOfDay();
+            // 结束日期包含当天，查询条件为小于次日零点
+            end = endDay.plusDays(1).atStartOfDay();
+        } else if (startDate != null || endDate != null) {
+            // 如果只提供了一个日期参数，抛出异常
+            throw new IllegalArgumentException("开始日期和结束日期必须同时提供");
+        }
+        return new Filter(typeFilter, start, end);
+    }
+
+    /**
+     * 解析交易记录游标，交易记录按创建时间和ID排序，游标必须包含时间
+     */
+    private PageCursor decodeCursor(String cursor) {
+        PageCursor pageCursor = PageCursor.decode(cursor);
+        if (pageCursor != null && pageCursor.getTime() == null) {
+            throw new IllegalArgumentException("无效的分页游标");
+        }
+        return pageCursor;
+    }
+
+    private LocalDate parseDate(String date) {
+        try {
+            return LocalDate.parse(date, DATE_FORMATTER);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("日期格式错误，请使用yyyy-MM-dd格式", e);
+        }
+    }
+
+    private boolean parseSort(String sort) {
+        if (sort == null || sort.isBlank() || sort.equalsIgnoreCase("desc")) {
+            return false;
+        }
+        if (sort.equalsIgnoreCase("asc")) {
+            return true;
+        }
+        throw new IllegalArgumentException("排序方向只能是asc或desc");
+    }
+
     /**
      * 验证请求参数
      */
@@ -183,4 +385,19 @@ public class TransactionService {
             throw new IllegalArgumentException("每页大小必须在1-100之间");
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 交易记录筛选条件
+     */
+    private static final class Filter {
+        private final String type;
+        private final LocalDateTime start;
+        private final LocalDateTime end;
+
+        private Filter(String type, LocalDateTime start, LocalDateTime end) {
+            this.type = type;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.bookstore.service;
 import com.bookstore.entity.User;
 import com.bookstore.mapper.UserMapper;
 import com.bookstore.util.JwtUtils;
+import com.bookstore.util.PageCursor;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
@@ -21,6 +22,9 @@ public class UserService {
     
     @Autowired
     private OrderService orderService;
+
+    @Autowired
+    private WalletService walletService;
     
     @Autowired
     private BCryptPasswordEncoder passwordEncoder;
@@ -56,10 +60,38 @@ public class UserService {
         result.put("page", page);
         result.put("size", size);
         result.put("pages", (int) Math.ceil((double) total / size));
+        result.put("nextCursor", users.isEmpty() || users.size() < size ? null : PageCursor.of(users.get(users.size() - 1).getId()).encode());
 
         return result;
     }
 
+    /**
+     * 游标分页获取所有用户，每页代价与翻页深度无关
+     * @param cursor 上一页返回的游标，为空时查询第一页
+     * @param size 每页数量
+     * @param withTotal 是否同时返回总数
+     * @return 包含分页数据和下一页游标的Map
+     */
+    public Map<String, Object> getUsersByCursor(String cursor, int size, boolean withTotal) {
+        PageCursor pageCursor = PageCursor.decode(cursor);
+        Long afterId = pageCursor != null ? pageCursor.getId() : null;
+
+        // 多取一条用于判断是否还有下一页
+        List<User> users = userMapper.findAllAfter(afterId, size + 1);
+        boolean hasMore = users.size() > size;
+        List<User> pageUsers = hasMore ? users.subList(0, size) : users;
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("users", pageUsers);
+        result.put("size", size);
+        result.put("hasMore", hasMore);
+        result.put("nextCursor", hasMore ? PageCursor.of(pageUsers.get(size - 1).getId()).encode() : null);
+        if (withTotal) {
+            result.put("total", userMapper.count());
+        }
+        return result;
+    }
+
     /**
      * 根据ID查找用户
      */
@@ -99,11 +131,6 @@ public class UserService {
             throw new IllegalArgumentException("用户名已存在");
         }
 
-        // 如果用户没有设置余额，设置默认值
-        if (user.getBalance() == null) {
-            user.setBalance(new BigDecimal("0.00"));
-        }
-
         try {
             userMapper.save(user);
             return user;
@@ -133,7 +160,7 @@ public class UserService {
     }
 
     /**
-     * 获取用户余额
+     * 获取用户余额（来自钱包）
      */
     public BigDecimal getUserBalance(Long userId) {
         User user = userMapper.findById(userId);
@@ -141,40 +168,12 @@ public class UserService {
     }
 
     /**
-     * 更新用户余额
-     * @param userId 用户ID
-     * @param amount 变动金额（正数为增加，负数为减少）
-     * @return 更新后的用户对象
-     */
-    @Transactional
-    public User updateUserBalance(Long userId, BigDecimal amount) {
-        // 检查用户是否存在
-        User user = userMapper.findById(userId);
-        if (user == null) {
-            throw new IllegalArgumentException("用户不存在");
-        }
-
-        // 检查余额是否足够（如果是减少余额的操作）
-        if (amount.compareTo(BigDecimal.ZERO) < 0 && user.getBalance().add(amount).compareTo(BigDecimal.ZERO) < 0) {
-            throw new IllegalArgumentException("余额不足");
-        }
-
-        // 更新余额
-        userMapper.updateBalance(userId, amount);
-
-        // 重新获取用户信息
-        return userMapper.findById(userId);
-    }
-
-    /**
-     * 充值
+     * 充值，余额变动统一由钱包记账
      */
     @Transactional
     public User deposit(Long userId, BigDecimal amount) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("充值金额必须大于0");
-        }
-        return updateUserBalance(userId, amount);
+        walletService.deposit(userId, amount, "用户充值");
+        return userMapper.findById(userId);
     }
 
     /**
@@ -182,10 +181,8 @@ public class UserService {
      */
     @Transactional
     public User withdraw(Long userId, BigDecimal amount) {
-        if (amount.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new IllegalArgumentException("提现金额必须大于0");
-        }
-        return updateUserBalance(userId, amount.negate());
+        walletService.withdraw(userId, amount, "用户提现");
+        return userMapper.findById(userId);
     }
 
     /**
@@ -196,7 +193,8 @@ public class UserService {
         if (amount.compareTo(BigDecimal.ZERO) <= 0) {
             throw new IllegalArgumentException("支付金额必须大于0");
         }
-        return updateUserBalance(userId, amount.negate());
+        walletService.debit(userId, amount, "PAYMENT", "用户支付", "余额不足");
+        return userMapper.findById(userId);
     }
 
     /**
@@ -207,7 +205,8 @@ public class UserService {
         if (amount.compareTo(BigDecimal.ZERO) <= 0) {
             throw new IllegalArgumentException("退款金额必须大于0");
         }
-        return updateUserBalance(userId, amount);
+        walletService.credit(userId, amount, "REFUND", "用户退款");
+        return userMapper.findById(userId);
     }
     
     /**
@@ -0,0 +1,145 @@
+package com.bookstore.service;
+
+import com.bookstore.entity.Wallet;
+import com.bookstore.entity.WalletBalanceCheckpoint;
+import com.bookstore.mapper.WalletBalanceCheckpointMapper;
+import com.bookstore.mapper.WalletMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 钱包余额快照服务
+ *
+ * 定期为有新交易的钱包记录余额快照，快照包含覆盖到的最后一条交易记录ID。
+ * 每个快照只汇总上一个快照之后的交易，对账和历史余额查询也只需汇总最近快照之后的交易，
+ * 代价与近期交易量成正比，而不是与全部历史成正比。
+ * 生成快照前以共享锁锁定钱包：资金操作总是先更新钱包余额再写交易记录，锁定成功说明该钱包已写入的交易都已提交，
+ * 快照不会漏掉提交较晚的交易；正在进行资金操作的钱包会被跳过，留到下一次。
+ */
+@Service
+public class WalletCheckpointService {
+
+    private static final Logger logger = LoggerFactory.getLogger(WalletCheckpointService.class);
+
+    /**
+     * 每个事务处理的钱包数上限
+     */
+    private static final int BATCH_SIZE = 500;
+
+    @Autowired
+    private WalletBalanceCheckpointMapper checkpointMapper;
+
+    @Autowired
+    private WalletMapper walletMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * 为所有有新交易的钱包生成快照
+     * @return 生成的快照数量
+     */
+    @Scheduled(cron = "${app.wallet.checkpoint.cron:0 0 3 * * *}")
+    public int createCheckpoints() {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        int created = 0;
+        int skipped = 0;
+        long afterId = 0;
+        List<Long> walletIds;
+        do {
+            walletIds = checkpointMapper.findWalletIdsToCheckpoint(afterId, BATCH_SIZE);
+            if (walletIds.isEmpty()) {
+                break;
+            }
+            afterId = walletIds.get(walletIds.size() - 1);
+
+            List<Long> batch = walletIds;
+            Integer count = transactionTemplate.execute(status -> {
+                List<Long> locked = walletMapper.lockIdleForShare(batch);
+                return locked.isEmpty() ? 0 : checkpointMapper.createForWallets(locked);
+            });
+            created += count == null ? 0 : count;
+            skipped += batch.size() - (count == null ? 0 : count);
+        } while (walletIds.size() == BATCH_SIZE);
+
+        if (created > 0 || skipped > 0) {
+            logger.info("生成钱包余额快照{}个，跳过正在操作的钱包{}个", created, skipped);
+        }
+        return created;
+    }
+
+    /**
+     * 查询用户在指定时间的余额：最近一个快照由交易记录推算的余额加上快照之后、该时间之前的交易金额，
+     * 结果完全由交易记录得出；指定时间早于第一个快照时从零开始累加交易记录
+     * @param time 时间，为null时取当前时间
+     */
+    public Map<String, Object> getBalanceAt(Long userId, LocalDateTime time) {
+        if (time == null) {
+            time = LocalDateTime.now();
+        }
+        Map<String, Object> response = new HashMap<>();
+        Wallet wallet = walletMapper.findByUserId(userId);
+        if (wallet == null) {
+            response.put("success", false);
+            response.put("message", "用户没有钱包");
+            return response;
+        }
+
+        WalletBalanceCheckpoint checkpoint = checkpointMapper.findLatest(wallet.getId(), time);
+        BigDecimal base = checkpoint == null ? BigDecimal.ZERO : checkpoint.getLedgerBalance();
+        long afterTransactionId = checkpoint == null ? 0 : checkpoint.getLastTransactionId();
+        BigDecimal amount = checkpointMapper.sumAmountAfter(wallet.getId(), afterTransactionId, time);
+
+        response.put("success", true);
+        response.put("time", time);
+        response.put("balance", base.add(amount));
+        response.put("checkpointId", checkpoint == null ? null : checkpoint.getId());
+        response.put("checkpointTime", checkpoint == null ? null : checkpoint.getCreateTime());
+        return response;
+    }
+
+    /**
+     * 对账：用交易记录推算的余额核对当前余额
+     * expectedBalance 为最新快照由交易记录推算的余额加上之后的交易金额，等于全部交易记录之和，
+     * 快照之前已经存在的差异同样会被报告；checkpointBalance 仅供参考，是生成快照时钱包的实际余额
+     */
+    public Map<String, Object> reconcile(Long userId) {
+        Map<String, Object> response = new HashMap<>();
+        Map<String, Object> row = checkpointMapper.reconcileByUserId(userId);
+        if (row == null) {
+            response.put("success", false);
+            response.put("message", "用户没有钱包");
+            return response;
+        }
+
+        BigDecimal balance = (BigDecimal) row.get("balance");
+        BigDecimal amountSince = (BigDecimal) row.get("amount_since");
+        boolean hasCheckpoint = row.get("checkpoint_id") != null;
+        BigDecimal expectedBalance = (hasCheckpoint ? (BigDecimal) row.get("checkpoint_ledger_balance") : BigDecimal.ZERO)
+                .add(amountSince);
+        BigDecimal difference = balance.subtract(expectedBalance);
+
+        response.put("success", true);
+        response.put("walletId", row.get("wallet_id"));
+        response.put("balance", balance);
+        response.put("expectedBalance", expectedBalance);
+        response.put("difference", difference);
+        response.put("consistent", difference.signum() == 0);
+        response.put("checkpointId", row.get("checkpoint_id"));
+        response.put("checkpointBalance", row.get("checkpoint_balance"));
+        response.put("checkpointTime", row.get("checkpoint_time"));
+        response.put("transactionsSinceCheckpoint", row.get("count_since"));
+        return response;
+    }
+}
@@ -0,0 +1,244 @@
+package com.bookstore.service;
+
+import com.bookstore.exception.OutcomeUnknownException;
+import com.bookstore.exception.ServiceBusyException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 钱包命令调度器
+ *
+ * 按用户ID哈希把资金操作分配到固定数量的通道，每个通道由单个线程按提交顺序执行，
+ * 同一用户的操作因此天然串行，不再在数据库行锁上排队，占用的连接数也不超过通道数。
+ * 通道线程每次取出队列中积压的一批命令，在同一个事务中依次执行并一次提交（组提交）；
+ * 每条命令在自己的保存点中执行，失败或被标记回滚时只回滚到该保存点，不影响同批的其他命令。
+ * 命令的结果在整批提交后才返回给调用方，提交失败时同批命令全部以异常返回。
+ * 每个通道的队列有上限，队列已满时直接拒绝；调用方最多等待 timeout-ms，超时时命令还在队列中则撤回并按未执行返回，
+ * 已被通道取出的命令之后仍可能提交，以 {@link OutcomeUnknownException} 返回，不能当作未执行而重试。
+ */
+@Component
+public class WalletCommandDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(WalletCommandDispatcher.class);
+
+    /**
+     * 通道数，即同时进行资金操作占用的最大连接数
+     */
+    @Value("${app.wallet.lanes:4}")
+    private int laneCount;
+
+    /**
+     * 一次组提交包含的最大命令数
+     */
+    @Value("${app.wallet.max-batch:64}")
+    private int maxBatch;
+
+    /**
+     * 每个通道排队的最大命令数
+     */
+    @Value("${app.wallet.queue-capacity:1000}")
+    private int queueCapacity;
+
+    /**
+     * 调用方等待命令结果的最长时间
+     */
+    @Value("${app.wallet.timeout-ms:10000}")
+    private long timeoutMillis;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private Lane[] lanes;
+
+    @PostConstruct
+    public void start() {
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i);
+            lanes[i].start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (Lane lane : lanes) {
+            lane.interrupt();
+        }
+    }
+
+    /**
+     * 在用户所属的通道中执行资金操作并等待结果
+     * 已在事务中或已在通道线程中时直接执行，避免脱离调用方的事务或通道自身等待自己
+     * @param userId 用户ID，决定命令所在的通道
+     * @param command 资金操作，通常是 WalletService 的事务方法
+     * @return 命令的返回值，在命令所在的批次提交后返回
+     * @throws ServiceBusyException 队列已满或等待超时时命令尚未开始执行，命令不会再执行
+     * @throws OutcomeUnknownException 等待超时或被中断时命令已开始执行，之后仍可能提交
+     */
+    public <T> T execute(Long userId, Supplier<T> command) {
+        if (Thread.currentThread() instanceof Lane || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return command.get();
+        }
+
+        Command<T> walletCommand = new Command<>(command);
+        Lane lane = lanes[Math.floorMod(Long.hashCode(userId), lanes.length)];
+        if (!lane.queue.offer(walletCommand)) {
+            throw new ServiceBusyException("钱包服务繁忙，请稍后重试");
+        }
+        try {
+            return walletCommand.result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw abandon(lane, walletCommand);
+        } catch (TimeoutException e) {
+            throw abandon(lane, walletCommand);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new CompletionException(cause);
+        }
+    }
+
+    /**
+     * 放弃等待命令的结果：命令还在队列中时撤回，否则命令已在执行，结果未知
+     */
+    private RuntimeException abandon(Lane lane, Command<?> command) {
+        if (lane.queue.remove(command)) {
+            return new ServiceBusyException("钱包服务繁忙，请稍后重试");
+        }
+        logger.warn("等待钱包操作结果超时，操作仍在执行，结果未知");
+        return new OutcomeUnknownException("操作仍在处理中，请稍后查看余额和交易记录确认结果", command.result);
+    }
+
+    /**
+     * 单个通道：一个线程顺序执行队列中的命令
+     */
+    private final class Lane extends Thread {
+        private final BlockingQueue<Command<?>> queue = new LinkedBlockingQueue<>(queueCapacity);
+
+        private Lane(int index) {
+            super("wallet-lane-" + index);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<Command<?>> batch = new ArrayList<>(maxBatch);
+            while (!isInterrupted()) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    break;
+                }
+                queue.drainTo(batch, maxBatch - 1);
+                executeBatch(batch);
+                batch.clear();
+            }
+
+            // 停止时未执行的命令直接失败，调用方不会一直等待
+            queue.drainTo(batch);
+            IllegalStateException stopped = new IllegalStateException("钱包服务已停止");
+            batch.forEach(command -> command.result.completeExceptionally(stopped));
+        }
+
+        /**
+         * 在一个事务中执行一批命令，每条命令使用独立的保存点
+         */
+        private void executeBatch(List<Command<?>> batch) {
+            TransactionStatus transaction;
+            try {
+                transaction = transactionManager.getTransaction(new DefaultTransactionDefinition());
+            } catch (RuntimeException e) {
+                batch.forEach(command -> command.result.completeExceptionally(e));
+                return;
+            }
+
+            DefaultTransactionDefinition nested = new DefaultTransactionDefinition(
+                    TransactionDefinition.PROPAGATION_NESTED);
+            try {
+                for (Command<?> command : batch) {
+                    TransactionStatus savepoint = transactionManager.getTransaction(nested);
+                    try {
+                        command.run();
+                    } catch (RuntimeException e) {
+                        command.failure = e;
+                    }
+                    if (command.failure != null || savepoint.isRollbackOnly()) {
+                        // 命令失败，或已把失败转换为返回值并要求回滚（例如余额不足），只回滚这条命令
+                        transactionManager.rollback(savepoint);
+                    } else {
+                        transactionManager.commit(savepoint);
+                    }
+                }
+                transactionManager.commit(transaction);
+            } catch (RuntimeException | Error e) {
+                if (!transaction.isCompleted()) {
+                    try {
+                        transactionManager.rollback(transaction);
+                    } catch (RuntimeException rollbackFailure) {
+                        e.addSuppressed(rollbackFailure);
+                    }
+                }
+                logger.error("钱包操作批量提交失败，{}条命令未生效: {}", batch.size(), e.getMessage());
+                batch.forEach(command -> command.result.completeExceptionally(e));
+                return;
+            }
+            batch.forEach(Command::complete);
+        }
+    }
+
+    /**
+     * 等待执行的资金操作
+     */
+    private static final class Command<T> {
+        private final Supplier<T> action;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private T value;
+        private Throwable failure;
+
+        private Command(Supplier<T> action) {
+            this.action = action;
+        }
+
+        private void run() {
+            value = action.get();
+        }
+
+        /**
+         * 所在批次提交后返回结果
+         */
+        private void complete() {
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(value);
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.bookstore.service;
+
+import com.bookstore.mapper.WalletBalanceCheckpointMapper;
+import org.apache.ibatis.cursor.Cursor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 钱包批量对账服务
+ *
+ * 按用户ID把全部用户划分为固定大小的区间，在有界线程池中并行处理。每个区间在只读事务中用游标逐行读取
+ * 钱包余额、最新快照由交易记录推算的余额和快照之后的交易汇总，内存占用与用户数无关；并行度即同时占用的连接数，
+ * 默认远小于连接池大小，不会挤占请求处理所需的连接。
+ * 结果是差异报告和可选的修复计划，修复计划只列出建议的操作，不会修改数据。
+ */
+@Service
+public class WalletReconciliationService {
+
+    private static final Logger logger = LoggerFactory.getLogger(WalletReconciliationService.class);
+
+    /**
+     * 报告中列出的差异明细和修复操作的上限，超出部分只计数
+     */
+    private static final int MAX_REPORTED = 1000;
+
+    /**
+     * 并行处理的区间数，即对账占用的最大连接数
+     */
+    @Value("${app.wallet.reconcile.parallelism:2}")
+    private int parallelism;
+
+    /**
+     * 每个区间包含的用户ID数量
+     */
+    @Value("${app.wallet.reconcile.range-size:10000}")
+    private int rangeSize;
+
+    @Autowired
+    private WalletBalanceCheckpointMapper checkpointMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile Map<String, Object> lastReport;
+
+    /**
+     * 定时对账，默认不启用
+     */
+    @Scheduled(cron = "${app.wallet.reconcile.cron:-}")
+    public void scheduledReconcile() {
+        if (running.compareAndSet(false, true)) {
+            try {
+                lastReport = reconcileAll(true);
+            } finally {
+                running.set(false);
+            }
+        }
+    }
+
+    /**
+     * 在后台开始一次对账，同一时间只允许一次
+     * @param withRepairPlan 是否生成修复计划
+     */
+    public Map<String, Object> startReconciliation(boolean withRepairPlan) {
+        Map<String, Object> response = new HashMap<>();
+        if (!running.compareAndSet(false, true)) {
+            response.put("success", false);
+            response.put("message", "对账正在进行中");
+            return response;
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                lastReport = reconcileAll(withRepairPlan);
+            } catch (Exception e) {
+                logger.error("钱包对账失败", e);
+            } finally {
+                running.set(false);
+            }
+        }, "wallet-reconcile");
+        thread.setDaemon(true);
+        thread.start();
+
+        response.put("success", true);
+        response.put("message", "对账已开始");
+        return response;
+    }
+
+    /**
+     * 获取最近一次对账的报告
+     */
+    public Map<String, Object> getLastReport() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("running", running.get());
+        response.put("report", lastReport);
+        return response;
+    }
+
+    /**
+     * 对全部用户进行对账
+     * @param withRepairPlan 是否生成修复计划
+     * @return 对账报告
+     */
+    public Map<String, Object> reconcileAll(boolean withRepairPlan) {
+        LocalDateTime startedAt = LocalDateTime.now();
+        long start = System.currentTimeMillis();
+        Report report = new Report(withRepairPlan);
+
+        Map<String, Object> idRange = checkpointMapper.findUserIdRange();
+        if (idRange != null && idRange.get("min_id") != null) {
+            long minId = ((Number) idRange.get("min_id")).longValue();
+            long maxId = ((Number) idRange.get("max_id")).longValue();
+
+            AtomicInteger threadIndex = new AtomicInteger();
+            ExecutorService pool = Executors.newFixedThreadPool(parallelism, runnable -> {
+                Thread thread = new Thread(runnable, "wallet-reconcile-" + threadIndex.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (long fromId = minId; fromId <= maxId; fromId += rangeSize) {
+                    long from = fromId;
+                    long to = Math.min(fromId + rangeSize - 1, maxId);
+                    futures.add(pool.submit(() -> reconcileRange(from, to, report)));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                report.failedRanges.add("对账被中断");
+            } catch (ExecutionException e) {
+                report.failedRanges.add(String.valueOf(e.getCause()));
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        Map<String, Object> result = report.toMap();
+        result.put("startedAt", startedAt);
+        result.put("finishedAt", LocalDateTime.now());
+        result.put("durationMs", System.currentTimeMillis() - start);
+        logger.info("钱包对账完成：检查用户{}个，差异{}个，耗时{}ms",
+                result.get("usersScanned"), result.get("discrepancyCount"), result.get("durationMs"));
+        return result;
+    }
+
+    /**
+     * 对一个用户ID区间进行对账，失败只影响该区间
+     */
+    private void reconcileRange(long fromId, long toId, Report report) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setReadOnly(true);
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Cursor<Map<String, Object>> rows = checkpointMapper.streamReconciliationRange(fromId, toId)) {
+                    for (Map<String, Object> row : rows) {
+                        report.check(row);
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (Exception e) {
+            logger.error("用户{}~{}对账失败: {}", fromId, toId, e.getMessage());
+            report.failedRanges.add(fromId + "-" + toId + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 并行汇总的对账结果
+     */
+    private static final class Report {
+        private final boolean withRepairPlan;
+        private final LongAdder usersScanned = new LongAdder();
+        private final LongAdder missingWallets = new LongAdder();
+        private final LongAdder balanceMismatches = new LongAdder();
+        private final AtomicInteger reported = new AtomicInteger();
+        private final Queue<Map<String, Object>> discrepancies = new ConcurrentLinkedQueue<>();
+        private final Queue<Map<String, Object>> repairPlan = new ConcurrentLinkedQueue<>();
+        private final Queue<String> failedRanges = new ConcurrentLinkedQueue<>();
+
+        private Report(boolean withRepairPlan) {
+            this.withRepairPlan = withRepairPlan;
+        }
+
+        /**
+         * 检查一个用户：应当有钱包，且钱包余额等于最新快照由交易记录推算的余额加上快照之后的交易金额
+         * 没有快照的钱包从零开始累加交易记录，迁移而来、没有对应交易记录的历史余额也会表现为差异
+         */
+        private void check(Map<String, Object> row) {
+            usersScanned.increment();
+            Long userId = ((Number) row.get("user_id")).longValue();
+
+            if (row.get("wallet_id") == null) {
+                missingWallets.increment();
+                BigDecimal legacyBalance = row.get("legacy_balance") == null
+                        ? BigDecimal.ZERO : (BigDecimal) row.get("legacy_balance");
+                if (reported.getAndIncrement() < MAX_REPORTED) {
+                    Map<String, Object> discrepancy = new LinkedHashMap<>();
+                    discrepancy.put("userId", userId);
+                    discrepancy.put("type", "MISSING_WALLET");
+                    discrepancy.put("legacyBalance", legacyBalance);
+                    discrepancies.add(discrepancy);
+                    if (withRepairPlan) {
+                        Map<String, Object> action = new LinkedHashMap<>();
+                        action.put("userId", userId);
+                        action.put("action", "CREATE_WALLET");
+                        action.put("amount", legacyBalance);
+                        action.put("description", "创建钱包，沿用 users.balance 中的历史余额并记一笔 MIGRATION 交易");
+                        repairPlan.add(action);
+                    }
+                }
+                return;
+            }
+
+            BigDecimal balance = (BigDecimal) row.get("balance");
+            // 预期余额完全由交易记录推算，快照之前已经存在的差异同样会被报告
+            BigDecimal base = row.get("checkpoint_ledger_balance") == null
+                    ? BigDecimal.ZERO : (BigDecimal) row.get("checkpoint_ledger_balance");
+            BigDecimal expectedBalance = base.add((BigDecimal) row.get("amount_since"));
+            BigDecimal difference = balance.subtract(expectedBalance);
+            if (difference.signum() == 0) {
+                return;
+            }
+
+            balanceMismatches.increment();
+            if (reported.getAndIncrement() < MAX_REPORTED) {
+                Long walletId = ((Number) row.get("wallet_id")).longValue();
+                Map<String, Object> discrepancy = new LinkedHashMap<>();
+                discrepancy.put("userId", userId);
+                discrepancy.put("walletId", walletId);
+                discrepancy.put("type", "BALANCE_MISMATCH");
+                discrepancy.put("balance", balance);
+                discrepancy.put("expectedBalance", expectedBalance);
+                discrepancy.put("difference", difference);
+                discrepancy.put("checkpointId", row.get("checkpoint_id"));
+                discrepancies.add(discrepancy);
+                if (withRepairPlan) {
+                    // 补记一条调整流水使交易记录与余额一致，不改动用户的实际余额
+                    Map<String, Object> action = new LinkedHashMap<>();
+                    action.put("userId", userId);
+                    action.put("walletId", walletId);
+                    action.put("action", "ADD_ADJUSTMENT_TRANSACTION");
+                    action.put("amount", difference);
+                    action.put("description", "补记调整流水，使交易记录与钱包余额一致");
+                    repairPlan.add(action);
+                }
+            }
+        }
+
+        private Map<String, Object> toMap() {
+            Comparator<Map<String, Object>> byUserId = Comparator.comparing(item -> (Long) item.get("userId"));
+            List<Map<String, Object>> sortedDiscrepancies = new ArrayList<>(discrepancies);
+            sortedDiscrepancies.sort(byUserId);
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("usersScanned", usersScanned.sum());
+            result.put("missingWallets", missingWallets.sum());
+            result.put("balanceMismatches", balanceMismatches.sum());
+            result.put("discrepancyCount", missingWallets.sum() + balanceMismatches.sum());
+            result.put("discrepancies", sortedDiscrepancies);
+            result.put("truncated", reported.get() > MAX_REPORTED);
+            if (withRepairPlan) {
+                List<Map<String, Object>> sortedPlan = new ArrayList<>(repairPlan);
+                sortedPlan.sort(byUserId);
+                result.put("repairPlan", sortedPlan);
+            }
+            result.put("failedRanges", new ArrayList<>(failedRanges));
+            return result;
+        }
+    }
+}
@@ -1,9 +1,11 @@
 package com.bookstore.service;
 
+import com.bookstore.dto.WalletTransactionDTO;
 import com.bookstore.entity.Order;
 import com.bookstore.entity.User;
 import com.bookstore.entity.Wallet;
 import com.bookstore.entity.WalletTransaction;
+import com.bookstore.mapper.OrderItemMapper;
 import com.bookstore.mapper.OrderMapper;
 import com.bookstore.mapper.UserMapper;
 import com.bookstore.mapper.WalletMapper;
@@ -11,6 +13,7 @@ import com.bookstore.mapper.WalletTransactionMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import java.math.BigDecimal;
 import java.util.*;
@@ -30,6 +33,18 @@ public class WalletService {
     @Autowired
     private OrderMapper orderMapper;
 
+    @Autowired
+    private OrderItemMapper orderItemMapper;
+
+    @Autowired
+    private SalesRollupService salesRollupService;
+
+    @Autowired
+    private BestsellerTracker bestsellerTracker;
+
+    @Autowired
+    private SalesTimeSeries salesTimeSeries;
+
     /**
      * 获取用户钱包
      */
@@ -58,7 +73,7 @@ public class WalletService {
     /**
      * 获取钱包交易记录
      */
-    public List<WalletTransaction> getWalletTransactions(Long userId) {
+    public List<WalletTransactionDTO> getWalletTransactions(Long userId) {
         return walletTransactionMapper.findByUserId(userId);
     }
 
@@ -70,27 +85,7 @@ public class WalletService {
         if (amount.compareTo(BigDecimal.ZERO) <= 0) {
             throw new IllegalArgumentException("充值金额必须大于0");
         }
-
-        Wallet wallet = getUserWallet(userId);
-
-        // 更新钱包余额
-        walletMapper.updateBalance(wallet.getId(), amount);
-        
-        // 同时更新用户余额
-        userMapper.updateBalance(userId, amount);
-
-        // 创建交易记录
-        WalletTransaction transaction = new WalletTransaction();
-        transaction.setWallet(wallet);
-        transaction.setAmount(amount);
-        transaction.setType("DEPOSIT");
-        transaction.setDescription(description);
-        transaction.setStatus("SUCCESS");
-        transaction.setCreateTime(new Date());
-
-        walletTransactionMapper.save(transaction);
-
-        return transaction;
+        return credit(userId, amount, "DEPOSIT", description);
     }
 
     /**
@@ -101,26 +96,55 @@ public class WalletService {
         if (amount.compareTo(BigDecimal.ZERO) <= 0) {
             throw new IllegalArgumentException("提现金额必须大于0");
         }
+        return debit(userId, amount, "WITHDRAW", description, "余额不足");
+    }
 
-        Wallet wallet = getUserWallet(userId);
+    /**
+     * 入账：增加钱包余额并记录流水
+     * 钱包余额是唯一的余额来源，users.balance 只是查询用户时从钱包取得的投影
+     * @param type 流水类型，如 DEPOSIT、REFUND
+     */
+    @Transactional
+    public WalletTransaction credit(Long userId, BigDecimal amount, String type, String description) {
+        Wallet wallet = requireWallet(userId);
+        walletMapper.updateBalance(wallet.getId(), amount);
+        return record(wallet, amount, type, description, null);
+    }
 
-        // 检查余额是否足够
-        if (wallet.getBalance().compareTo(amount) < 0) {
-            throw new IllegalArgumentException("余额不足");
+    /**
+     * 出账：余额充足时扣减钱包余额并记录流水
+     * @param type 流水类型，如 WITHDRAW、PAYMENT
+     * @param insufficientMessage 余额不足时的提示
+     * @throws IllegalArgumentException 余额不足时
+     */
+    @Transactional
+    public WalletTransaction debit(Long userId, BigDecimal amount, String type, String description,
+                                   String insufficientMessage) {
+        Wallet wallet = requireWallet(userId);
+        if (walletMapper.debit(wallet.getId(), amount) == null) {
+            throw new IllegalArgumentException(insufficientMessage);
         }
+        return record(wallet, amount.negate(), type, description, null);
+    }
 
-        // 更新钱包余额（减去提现金额）
-        walletMapper.updateBalance(wallet.getId(), amount.negate());
-        
-        // 同时更新用户余额
-        userMapper.updateBalance(userId, amount.negate());
+    private Wallet requireWallet(Long userId) {
+        Wallet wallet = getUserWallet(userId);
+        if (wallet == null) {
+            throw new IllegalArgumentException("用户不存在");
+        }
+        return wallet;
+    }
 
-        // 创建交易记录
+    /**
+     * 写入一条交易流水
+     */
+    private WalletTransaction record(Wallet wallet, BigDecimal amount, String type, String description, Order order) {
         WalletTransaction transaction = new WalletTransaction();
         transaction.setWallet(wallet);
-        transaction.setAmount(amount.negate());
-        transaction.setType("WITHDRAW");
+        transaction.setAmount(amount);
+        transaction.setType(type);
         transaction.setDescription(description);
+        transaction.setRelatedOrder(order);
         transaction.setStatus("SUCCESS");
         transaction.setCreateTime(new Date());
 
@@ -141,38 +165,23 @@ public class WalletService {
             throw new IllegalArgumentException("订单不存在");
         }
 
-        // 检查订单状态
-        if (order.getStatus() != 0) {
+        // 待支付 -> 已完成，同时锁定订单，同一订单的并发支付只有一个能成功
+        if (orderMapper.updateStatusIfCurrent(orderId, 0, 1) == 0) {
             throw new IllegalArgumentException("订单状态不正确，无法支付");
         }
+        order.setStatus(1);
+        salesRollupService.statusChanged(List.of(orderId), 0);
 
-        // 检查余额是否足够
-        if (wallet.getBalance().compareTo(order.getTotalAmount()) < 0) {
+        // 检查余额并扣减，余额不足时抛出异常回滚订单状态
+        if (walletMapper.debit(wallet.getId(), order.getTotalAmount()) == null) {
             throw new IllegalArgumentException("余额不足，请先充值");
         }
 
-        // 更新钱包余额（减去订单金额）
-        walletMapper.updateBalance(wallet.getId(), order.getTotalAmount().negate());
-        
-        // 同时更新用户余额
-        userMapper.updateBalance(userId, order.getTotalAmount().negate());
-
         // 创建交易记录
-        WalletTransaction transaction = new WalletTransaction();
-        transaction.setWallet(wallet);
-        transaction.setAmount(order.getTotalAmount().negate());
-        transaction.setType("PAYMENT");
-        transaction.setDescription("支付订单: " + order.getOrderNumber());
-        transaction.setRelatedOrder(order);
-        transaction.setStatus("SUCCESS");
-        transaction.setCreateTime(new Date());
-
-        walletTransactionMapper.save(transaction);
-
-        // 更新订单状态为已完成
-        order.setStatus(1);
-        orderMapper.update(order);
-
+        WalletTransaction transaction = record(wallet, order.getTotalAmount().negate(), "PAYMENT",
+                "支付订单: " + order.getOrderNumber(), order);
+        bestsellerTracker.recordAfterCommit(order.getOrderItems());
+        salesTimeSeries.recordAfterCommit(List.of(order), 1);
         return transaction;
     }
 
@@ -187,36 +196,23 @@ public class WalletService {
             throw new IllegalArgumentException("订单不存在");
         }
 
-        // 检查订单状态
-        if (order.getStatus() != 1) {
+        // 已完成 -> 已退款，同一订单只能退款一次
+        if (orderMapper.updateStatusIfCurrent(orderId, 1, 4) == 0) {
             throw new IllegalArgumentException("订单状态不正确，无法退款");
         }
+        order.setStatus(4);
+        salesRollupService.statusChanged(List.of(orderId), 1);
 
         // 获取用户钱包
         Wallet wallet = getUserWallet(order.getUser().getId());
 
         // 更新钱包余额（加上订单金额）
         walletMapper.updateBalance(wallet.getId(), order.getTotalAmount());
-        
-        // 同时更新用户余额
-        userMapper.updateBalance(order.getUser().getId(), order.getTotalAmount());
 
         // 创建交易记录
-        WalletTransaction transaction = new WalletTransaction();
-        transaction.setWallet(wallet);
-        transaction.setAmount(order.getTotalAmount());
-        transaction.setType("REFUND");
-        transaction.setDescription("订单退款: " + order.getOrderNumber());
-        transaction.setRelatedOrder(order);
-        transaction.setStatus("SUCCESS");
-        transaction.setCreateTime(new Date());
-
-        walletTransactionMapper.save(transaction);
-
-        // 更新订单状态为已取消
-        order.setStatus(4);
-        orderMapper.update(order);
-
+        WalletTransaction transaction = record(wallet, order.getTotalAmount(), "REFUND",
+                "订单退款: " + order.getOrderNumber(), order);
+        salesTimeSeries.recordAfterCommit(List.of(order), -1);
         return transaction;
     }
     
@@ -258,11 +254,14 @@ public class WalletService {
             response.put("balance", getUserWallet(userId).getBalance());
             return response;
         } catch (IllegalArgumentException e) {
+            // 异常在这里被转换为响应，需要显式回滚已执行的更新
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             Map<String, Object> response = new HashMap<>();
             response.put("success", false);
             response.put("message", e.getMessage());
             return response;
         } catch (Exception e) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             Map<String, Object> response = new HashMap<>();
             response.put("success", false);
             response.put("message", "充值失败: " + e.getMessage());
@@ -289,11 +288,14 @@ public class WalletService {
             response.put("balance", getUserWallet(userId).getBalance());
             return response;
         } catch (IllegalArgumentException e) {
+            // 异常在这里被转换为响应，需要显式回滚已执行的更新
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             Map<String, Object> response = new HashMap<>();
             response.put("success", false);
             response.put("message", e.getMessage());
             return response;
         } catch (Exception e) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             Map<String, Object> response = new HashMap<>();
             response.put("success", false);
             response.put("message", "提现失败: " + e.getMessage());
@@ -328,11 +330,14 @@ public class WalletService {
             response.put("balance", getUserWallet(userId).getBalance());
             return response;
         } catch (IllegalArgumentException e) {
+            // 异常在这里被转换为响应，需要显式回滚已执行的更新
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             Map<String, Object> response = new HashMap<>();
             response.put("success", false);
             response.put("message", e.getMessage());
             return response;
         } catch (Exception e) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             Map<String, Object> response = new HashMap<>();
             response.put("success", false);
             response.put("message", "支付失败: " + e.getMessage());
@@ -342,11 +347,14 @@ public class WalletService {
     
     /**
      * 批量支付订单
+     *
+     * 无论订单数量多少，语句数都是固定的：一次查询校验全部订单，一条 UPDATE 把仍待支付的订单改为已完成，
+     * 一次扣减总金额，一条多行 INSERT 写入全部交易记录。每个订单的处理结果仍单独返回。
      */
     @Transactional
     public Map<String, Object> batchPayOrders(Long userId, List<Long> orderIds) {
         Map<String, Object> response = new HashMap<>();
-        Map<String, Object> results = new HashMap<>();
+        Map<String, Object> results = new LinkedHashMap<>();
         
         try {
             // 检查用户是否存在
@@ -356,51 +364,76 @@ public class WalletService {
                 response.put("message", "用户不存在");
                 return response;
             }
-            
-            // 计算总金额
-            BigDecimal totalAmount = BigDecimal.ZERO;
-            List<Order> orders = new ArrayList<>();
-            
-            for (Long orderId : orderIds) {
-                Order order = orderMapper.findById(orderId);
+
+            Wallet wallet = getUserWallet(userId);
+            Set<Long> requestedIds = new LinkedHashSet<>(orderIds);
+            if (requestedIds.isEmpty()) {
+                response.put("success", true);
+                response.put("message", "批量支付处理完成");
+                response.put("results", results);
+                response.put("balance", wallet.getBalance());
+                return response;
+            }
+
+            // 按请求顺序预先占位，之后只填入每个订单的处理结果
+            for (Long orderId : requestedIds) {
+                results.put(orderId.toString(), "未支付");
+            }
+
+            // 一次查询校验全部订单
+            Map<Long, Order> ordersById = new HashMap<>();
+            for (Order order : orderMapper.findByIds(requestedIds)) {
+                ordersById.put(order.getId(), order);
+            }
+
+            List<Long> payableIds = new ArrayList<>();
+            for (Long orderId : requestedIds) {
+                Order order = ordersById.get(orderId);
                 if (order == null) {
                     results.put(orderId.toString(), "订单不存在");
-                    continue;
-                }
-                
-                if (!order.getUser().getId().equals(userId)) {
+                } else if (!order.getUser().getId().equals(userId)) {
                     results.put(orderId.toString(), "无权支付该订单");
-                    continue;
+                } else if (order.getStatus() != 0) {
+                    results.put(orderId.toString(), "订单状态不正确，无法支付");
+                } else {
+                    payableIds.add(orderId);
                 }
-                
-                if (order.getStatus() != 0) {
+            }
+
+            // 一条语句把仍待支付的订单改为已完成，校验后状态已变化的订单不会被更新
+            Set<Long> paidIds = payableIds.isEmpty()
+                    ? Collections.emptySet()
+                    : new HashSet<>(orderMapper.updateStatusIfCurrentByIds(payableIds, 0, 1));
+            List<Order> paidOrders = new ArrayList<>(paidIds.size());
+            BigDecimal paidAmount = BigDecimal.ZERO;
+            for (Long orderId : payableIds) {
+                Order order = ordersById.get(orderId);
+                if (!paidIds.contains(orderId)) {
                     results.put(orderId.toString(), "订单状态不正确，无法支付");
                     continue;
                 }
-                
-                totalAmount = totalAmount.add(order.getTotalAmount());
-                orders.add(order);
+                order.setStatus(1);
+                paidOrders.add(order);
+                paidAmount = paidAmount.add(order.getTotalAmount());
             }
-            
-            // 检查余额是否足够
-            Wallet wallet = getUserWallet(userId);
-            if (wallet.getBalance().compareTo(totalAmount) < 0) {
-                response.put("success", false);
-                response.put("message", "余额不足，请先充值");
-                response.put("results", results);
-                return response;
-            }
-            
-            // 执行批量支付
-            for (Order order : orders) {
-                try {
-                    // 更新钱包余额
-                    walletMapper.updateBalance(wallet.getId(), order.getTotalAmount().negate());
-                    
-                    // 更新用户余额
-                    userMapper.updateBalance(userId, order.getTotalAmount().negate());
-                    
-                    // 创建交易记录
+
+            BigDecimal balance = wallet.getBalance();
+            if (!paidOrders.isEmpty()) {
+                // 一次检查余额并扣减总金额，余额不足时回滚已修改的订单状态
+                balance = walletMapper.debit(wallet.getId(), paidAmount);
+                if (balance == null) {
+                    TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+                    paidIds.forEach(orderId -> results.put(orderId.toString(), "余额不足"));
+                    response.put("success", false);
+                    response.put("message", "余额不足，请先充值");
+                    response.put("results", results);
+                    return response;
+                }
+
+                // 一条多行 INSERT 写入全部交易记录
+                Date now = new Date();
+                List<WalletTransaction> transactions = new ArrayList<>(paidOrders.size());
+                for (Order order : paidOrders) {
                     WalletTransaction transaction = new WalletTransaction();
                     transaction.setWallet(wallet);
                     transaction.setAmount(order.getTotalAmount().negate());
@@ -408,26 +441,24 @@ public class WalletService {
                     transaction.setDescription("批量支付订单: " + order.getOrderNumber());
                     transaction.setRelatedOrder(order);
                     transaction.setStatus("SUCCESS");
-                    transaction.setCreateTime(new Date());
-                    
-                    walletTransactionMapper.save(transaction);
-                    
-                    // 更新订单状态
-                    order.setStatus(1);
-                    orderMapper.update(order);
-                    
+                    transaction.setCreateTime(now);
+                    transactions.add(transaction);
+
                     results.put(order.getId().toString(), "支付成功");
-                } catch (Exception e) {
-                    results.put(order.getId().toString(), "支付失败: " + e.getMessage());
                 }
+                walletTransactionMapper.batchSave(transactions);
+                salesRollupService.statusChanged(paidIds, 0);
+                bestsellerTracker.recordAfterCommit(orderItemMapper.findByOrderIds(new ArrayList<>(paidIds)));
+                salesTimeSeries.recordAfterCommit(paidOrders, 1);
             }
             
             response.put("success", true);
             response.put("message", "批量支付处理完成");
             response.put("results", results);
-            response.put("balance", getUserWallet(userId).getBalance());
+            response.put("balance", balance);
             return response;
         } catch (Exception e) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             response.put("success", false);
             response.put("message", "批量支付失败: " + e.getMessage());
             response.put("results", results);
@@ -462,11 +493,14 @@ public class WalletService {
             response.put("balance", getUserWallet(userId).getBalance());
             return response;
         } catch (IllegalArgumentException e) {
+            // 异常在这里被转换为响应，需要显式回滚已执行的更新
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             Map<String, Object> response = new HashMap<>();
             response.put("success", false);
             response.put("message", e.getMessage());
             return response;
         } catch (Exception e) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             Map<String, Object> response = new HashMap<>();
             response.put("success", false);
             response.put("message", "退款失败: " + e.getMessage());
@@ -493,6 +527,7 @@ public class WalletService {
             
             return batchPayOrders(userId, orderIds);
         } catch (Exception e) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
             Map<String, Object> response = new HashMap<>();
             response.put("success", false);
             response.put("message", "批量支付处理失败: " + e.getMessage());
@@ -0,0 +1,77 @@
+package com.bookstore.util;
+
+import com.bookstore.exception.BusinessException;
+import org.springframework.http.HttpStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * 游标分页令牌
+ * 记录上一页最后一条记录的排序键（时间 + ID 或仅 ID），编码为对客户端不透明的 Base64URL 字符串
+ */
+public class PageCursor {
+
+    private static final String SEPARATOR = "|";
+
+    private final LocalDateTime time;
+
+    private final Long id;
+
+    private PageCursor(LocalDateTime time, Long id) {
+        this.time = time;
+        this.id = id;
+    }
+
+    /**
+     * 按ID排序的游标
+     */
+    public static PageCursor of(Long id) {
+        return new PageCursor(null, id);
+    }
+
+    /**
+     * 按时间和ID排序的游标
+     */
+    public static PageCursor of(LocalDateTime time, Long id) {
+        return new PageCursor(time, id);
+    }
+
+    /**
+     * 解析游标令牌，空令牌表示第一页
+     * @throws BusinessException 令牌格式不正确时
+     */
+    public static PageCursor decode(String token) {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int index = raw.indexOf(SEPARATOR);
+            if (index < 0) {
+                return of(Long.valueOf(raw));
+            }
+            return of(LocalDateTime.parse(raw.substring(0, index)), Long.valueOf(raw.substring(index + 1)));
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            throw new BusinessException(HttpStatus.BAD_REQUEST.value(), "无效的分页游标");
+        }
+    }
+
+    /**
+     * 编码为令牌
+     */
+    public String encode() {
+        String raw = time == null ? String.valueOf(id) : time + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public LocalDateTime getTime() {
+        return time;
+    }
+
+    public Long getId() {
+        return id;
+    }
+}
@@ -12,13 +12,12 @@ export interface Book {
   description: string;
 }
 
-// 分页数据接口
-export interface PagedData {
+// 游标分页数据接口
+export interface CursorPagedData {
   books: Book[];
-  total: number;
-  page: number;
   size: number;
-  pages: number;
+  hasMore: boolean;
+  nextCursor: string | null;
 }
 
 // API响应接口
@@ -36,11 +35,12 @@ export const useBookStore = defineStore('books', {
     currentBook: null as Book | null,
     loading: false,
     error: null as string | null,
-    // 分页相关状态
+    // 分页相关状态：cursors[i] 为第 i+1 页的游标，第一页为空字符串
     currentPage: 1,
     pageSize: 20,
-    totalBooks: 0,
-    totalPages: 0,
+    hasMore: false,
+    cursors: [''] as string[],
+    cursorScope: '',
     // 新增：存储分类列表
     categories: [] as string[],
   }),
@@ -78,35 +78,7 @@ export const useBookStore = defineStore('books', {
     },
 
     async fetchPagedBooks(page: number = 1, size: number = 20) {
-      this.loading = true
-      this.error = null
-      console.log(`开始获取第${page}页图书，每页${size}本`)
-
-      try {
-        const response = await axios.get(`/books/paged?page=${page}&size=${size}`, { timeout: 5000 })
-        console.log('后端API返回分页数据:', response.data)
-
-        // 处理新的ApiResponse格式
-        if (response.data && response.data.success && response.data.data && response.data.data.books) {
-          const pagedData = response.data.data as PagedData
-          this.books = pagedData.books
-          this.currentPage = pagedData.page
-          this.pageSize = pagedData.size
-          this.totalBooks = pagedData.total
-          this.totalPages = pagedData.pages
-          console.log(`成功获取第${page}页图书，共${pagedData.total}本，${pagedData.pages}页`)
-        } else {
-          console.warn('后端返回的分页数据格式不正确')
-          this.books = []
-          this.error = response.data?.message || '从后端加载数据失败，请稍后再试'
-        }
-      } catch (error: any) {
-        console.error('获取分页图书列表失败:', error.message)
-        this.books = []
-        this.error = '从后端加载数据失败，请稍后再试'
-      } finally {
-        this.loading = false
-      }
+      await this.fetchCursorPage('/books/paged', 'all', page, size)
     },
 
     async fetchBookById(id: number) {
@@ -187,30 +159,49 @@ export const useBookStore = defineStore('books', {
     },
 
     async fetchBooksByCategoryPaged(category: string, page: number = 1, size: number = 20) {
+      await this.fetchCursorPage(`/books/category/${category}/paged`, `category:${category}`, page, size)
+    },
+
+    // 游标分页获取图书，只能逐页前后翻动；列表或每页数量变化时从第一页开始，
+    // 跳到尚未获得游标的页时也回到第一页
+    async fetchCursorPage(url: string, scope: string, page: number, size: number) {
+      if (scope !== this.cursorScope || size !== this.pageSize) {
+        this.cursorScope = scope
+        this.cursors = ['']
+      }
+      if (page < 1 || page > this.cursors.length) {
+        page = 1
+      }
+
       this.loading = true
       this.error = null
-      console.log(`开始获取${category}分类第${page}页图书，每页${size}本`)
+      console.log(`开始获取第${page}页图书，每页${size}本`)
 
       try {
-        const response = await axios.get(`/books/category/${category}/paged?page=${page}&size=${size}`, { timeout: 5000 })
-        console.log('后端API返回分类分页数据:', response.data)
+        const response = await axios.get(url, {
+          params: { cursor: this.cursors[page - 1], size },
+          timeout: 5000
+        })
+        console.log('后端API返回分页数据:', response.data)
 
         // 处理新的ApiResponse格式
         if (response.data && response.data.success && response.data.data && response.data.data.books) {
-          const pagedData = response.data.data as PagedData
+          const pagedData = response.data.data as CursorPagedData
           this.books = pagedData.books
-          this.currentPage = pagedData.page
+          this.currentPage = page
           this.pageSize = pagedData.size
-          this.totalBooks = pagedData.total
-          this.totalPages = pagedData.pages
-          console.log(`成功获取${category}分类第${page}页图书，共${pagedData.total}本，${pagedData.pages}页`)
+          this.hasMore = pagedData.hasMore
+          if (pagedData.nextCursor) {
+            this.cursors[page] = pagedData.nextCursor
+          }
+          console.log(`成功获取第${page}页图书，共${pagedData.books.length}本`)
         } else {
-          console.warn('后端返回的分类分页数据格式不正确')
+          console.warn('后端返回的分页数据格式不正确')
           this.books = []
           this.error = response.data?.message || '从后端加载数据失败，请稍后再试'
         }
       } catch (error: any) {
-        console.error('获取分类分页图书列表失败:', error.message)
+        console.error('获取分页图书列表失败:', error.message)
         this.books = []
         this.error = '从后端加载数据失败，请稍后再试'
       } finally {
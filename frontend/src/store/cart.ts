@@ -156,6 +156,12 @@ export const useCartStore = defineStore('cart', {
       }
     },
 
+    // 只清空本地购物车（服务端购物车已在结算时清空）
+    clearLocalCart() {
+      this.items = []
+      this.saveToLocalStorage()
+    },
+
     // 将购物车同步到后端
     async syncCartToServer() {
       const userStore = useUserStore()
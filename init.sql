@@ -20,6 +20,7 @@ CREATE TABLE IF NOT EXISTS users (
   email VARCHAR(100),
   phone VARCHAR(20),
   address VARCHAR(200),
+  -- 已废弃：余额以 wallet.balance 为准，查询用户时从钱包取得，该列不再读写
   balance DECIMAL(10,2) NOT NULL DEFAULT 0.00,
   role INT DEFAULT 0 
 );
@@ -53,6 +54,8 @@ CREATE TABLE IF NOT EXISTS order_items (
   book_id BIGINT NOT NULL,
   quantity INT NOT NULL,
   price DECIMAL(10,2) NOT NULL,
+  -- 下单时图书的分类，分类销量汇总的计入和撤销都使用该值，之后修改图书分类不影响已有订单
+  category VARCHAR(50) NOT NULL DEFAULT '',
   FOREIGN KEY (order_id) REFERENCES orders(id),
   FOREIGN KEY (book_id) REFERENCES books(id)
 );
@@ -93,6 +96,132 @@ CREATE TABLE IF NOT EXISTS cart_items (
   FOREIGN KEY (book_id) REFERENCES books(id)
 );
 
+-- 秒杀图书表（秒杀期间各实例从 books.stock 批量领取库存，在内存计数器中扣减）
+CREATE TABLE IF NOT EXISTS flash_sale_book (
+  book_id BIGINT PRIMARY KEY,
+  initial_stock INT NOT NULL,
+  start_item_id BIGINT NOT NULL,
+  create_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  FOREIGN KEY (book_id) REFERENCES books(id)
+);
+
+-- 秒杀库存租约表（每个实例已领取、尚未售出的秒杀库存，实例定期更新心跳）
+CREATE TABLE IF NOT EXISTS flash_sale_lease (
+  book_id BIGINT NOT NULL,
+  node_id VARCHAR(36) NOT NULL,
+  quantity INT NOT NULL DEFAULT 0,
+  heartbeat_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (book_id, node_id),
+  FOREIGN KEY (book_id) REFERENCES books(id)
+);
+
+-- 订单号节点租约表（未配置节点号的实例启动时领取一个空闲或心跳超时的节点号，实例定期更新心跳）
+CREATE TABLE IF NOT EXISTS order_node_lease (
+  node_id INT PRIMARY KEY,
+  owner VARCHAR(36) NOT NULL,
+  heartbeat_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- 钱包余额快照表（对账和历史余额查询只需汇总最近快照之后的交易记录）
+CREATE TABLE IF NOT EXISTS wallet_balance_checkpoint (
+  id BIGSERIAL PRIMARY KEY,
+  wallet_id BIGINT NOT NULL,
+  last_transaction_id BIGINT NOT NULL DEFAULT 0,
+  balance DECIMAL(10,2) NOT NULL,
+  ledger_balance DECIMAL(10,2) NOT NULL,
+  create_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  FOREIGN KEY (wallet_id) REFERENCES wallet(id)
+);
+
+-- 幂等记录表（按客户端提供的 Idempotency-Key 保存请求结果，重试时直接返回）
+CREATE TABLE IF NOT EXISTS idempotency_record (
+  scope VARCHAR(100) NOT NULL,
+  idempotency_key VARCHAR(100) NOT NULL,
+  request_hash VARCHAR(64) NOT NULL,
+  status VARCHAR(20) NOT NULL,
+  response_status INT,
+  response_body TEXT,
+  create_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (scope, idempotency_key)
+);
+
+-- 销售汇总增量表（订单变化时在同一事务中追加，定时合并到汇总表，不在热点汇总行上加锁）
+CREATE TABLE IF NOT EXISTS sales_rollup_delta (
+  id BIGSERIAL PRIMARY KEY,
+  order_id BIGINT NOT NULL,
+  status INT NOT NULL,
+  order_date TIMESTAMP NOT NULL,
+  book_id BIGINT,
+  category VARCHAR(50),
+  quantity INT NOT NULL,
+  amount DECIMAL(12,2) NOT NULL,
+  sign SMALLINT NOT NULL
+);
+
+-- 销售汇总表（已支付订单按小时、天、月和全部时间汇总，granularity: HOUR/DAY/MONTH/TOTAL）
+CREATE TABLE IF NOT EXISTS sales_rollup (
+  granularity VARCHAR(10) NOT NULL,
+  bucket_start TIMESTAMP NOT NULL,
+  order_count INT NOT NULL DEFAULT 0,
+  quantity INT NOT NULL DEFAULT 0,
+  amount DECIMAL(14,2) NOT NULL DEFAULT 0.00,
+  PRIMARY KEY (granularity, bucket_start)
+);
+
+-- 图书销售汇总表
+CREATE TABLE IF NOT EXISTS book_sales_rollup (
+  granularity VARCHAR(10) NOT NULL,
+  bucket_start TIMESTAMP NOT NULL,
+  book_id BIGINT NOT NULL,
+  quantity INT NOT NULL DEFAULT 0,
+  amount DECIMAL(14,2) NOT NULL DEFAULT 0.00,
+  PRIMARY KEY (granularity, bucket_start, book_id)
+);
+
+-- 分类销售汇总表（category 为图书的原始分类，没有分类时为空字符串）
+CREATE TABLE IF NOT EXISTS category_sales_rollup (
+  granularity VARCHAR(10) NOT NULL,
+  bucket_start TIMESTAMP NOT NULL,
+  category VARCHAR(50) NOT NULL,
+  quantity INT NOT NULL DEFAULT 0,
+  amount DECIMAL(14,2) NOT NULL DEFAULT 0.00,
+  PRIMARY KEY (granularity, bucket_start, category)
+);
+
+-- 订单状态计数表
+CREATE TABLE IF NOT EXISTS order_status_count (
+  status INT PRIMARY KEY,
+  order_count BIGINT NOT NULL DEFAULT 0
+);
+
+-- 索引
+-- 图书分类游标分页
+CREATE INDEX IF NOT EXISTS idx_books_category_id ON books (category, id);
+-- 订单按下单时间游标分页
+CREATE INDEX IF NOT EXISTS idx_orders_order_date_id ON orders (order_date DESC, id DESC);
+-- 用户订单按下单时间游标分页
+CREATE INDEX IF NOT EXISTS idx_orders_user_order_date_id ON orders (user_id, order_date DESC, id DESC);
+-- 订单项按订单批量加载和删除
+CREATE INDEX IF NOT EXISTS idx_order_items_order_id ON order_items (order_id);
+-- 秒杀库存恢复时按图书汇总订单项
+CREATE INDEX IF NOT EXISTS idx_order_items_book_id_id ON order_items (book_id, id);
+-- 待支付订单过期扫描（部分索引，只包含待支付订单）
+CREATE INDEX IF NOT EXISTS idx_orders_pending_order_date ON orders (order_date) WHERE status = 0;
+-- 钱包交易记录按时间游标分页
+CREATE INDEX IF NOT EXISTS idx_wallet_transaction_wallet_time_id ON wallet_transaction (wallet_id, create_time, id);
+-- 钱包交易记录按类型筛选后按时间游标分页
+CREATE INDEX IF NOT EXISTS idx_wallet_transaction_wallet_type_time_id ON wallet_transaction (wallet_id, type, create_time, id);
+-- 汇总钱包快照之后的交易记录
+CREATE INDEX IF NOT EXISTS idx_wallet_transaction_wallet_id_id ON wallet_transaction (wallet_id, id);
+-- 查询钱包在某一时间之前的最近快照
+CREATE INDEX IF NOT EXISTS idx_wallet_balance_checkpoint_wallet_time ON wallet_balance_checkpoint (wallet_id, create_time DESC, id DESC);
+-- 清理过期幂等记录
+CREATE INDEX IF NOT EXISTS idx_idempotency_record_create_time ON idempotency_record (create_time);
+-- 按时间范围统计已支付订单的销量（部分索引，只包含已支付订单）
+CREATE INDEX IF NOT EXISTS idx_orders_paid_order_date ON orders (order_date, id) WHERE status = 1;
+-- 畅销图书排行
+CREATE INDEX IF NOT EXISTS idx_book_sales_rollup_quantity ON book_sales_rollup (granularity, bucket_start, quantity DESC);
+
 -- 初始化数据脚本
 
 -- 初始化管理员数据
@@ -221,4 +350,16 @@ INSERT INTO books (title, author, price, stock, category, description) VALUES
 ('神奇校车', '乔安娜·柯尔', 68.00, 90, 'children', '科普知识绘本系列'),
 ('了不起的狐狸爸爸', '罗尔德·达尔', 20.00, 100, 'children', '幽默冒险儿童小说'),
 ('纳尼亚传奇', 'C.S.刘易斯', 158.00, 80, 'children', '奇幻冒险系列小说'),
-('柳林风声', '肯尼思·格雷厄姆', 25.00, 110, 'children', '经典儿童文学作品');
\ No newline at end of file
+('柳林风声', '肯尼思·格雷厄姆', 25.00, 110, 'children', '经典儿童文学作品');
+
+-- 为还没有钱包的用户创建钱包，沿用 users.balance 中的历史余额（余额统一以 wallet.balance 为准），
+-- 非零的历史余额同时记一笔 MIGRATION 交易，保持余额等于交易记录之和
+WITH migrated AS (
+  INSERT INTO wallet (user_id, balance)
+  SELECT id, balance FROM users
+  ON CONFLICT (user_id) DO NOTHING
+  RETURNING id, balance
+)
+INSERT INTO wallet_transaction (wallet_id, amount, type, description, status)
+SELECT id, balance, 'MIGRATION', '迁移历史余额', 'SUCCESS' FROM migrated
+WHERE balance <> 0;